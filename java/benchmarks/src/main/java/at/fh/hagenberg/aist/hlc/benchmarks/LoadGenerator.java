@@ -0,0 +1,372 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.benchmarks;
+
+import at.fh.hagenberg.aist.hlc.broker.Broker;
+import at.fh.hagenberg.aist.hlc.core.messages.*;
+import at.fh.hagenberg.aist.hlc.worker.Worker;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Synthetic load on a broker and in-process workers (ExampleExternalOptimizationWorker) over loopback TCP.
+ * Every client runs an algorithm run like HeuristicLab does: it creates and evaluates a population,
+ * then crosses, mutates and evaluates it for a number of generations and stops the run.
+ * Throughput and latency percentiles are reported per message type.
+ * <p>
+ * Configured in loadGenerator.xml, values can be overridden with system properties, e.g. -Dclients=64 -Dworkers=8.
+ */
+public class LoadGenerator {
+
+    private Broker broker;
+    private int workers;
+    private int clients;
+    private int generations;
+    private int populationSize;
+    private double mutationProbability;
+    private int evaluationBatchSize;
+    private int timeout;
+
+    public static void main(String[] args) throws Exception {
+        ClassPathXmlApplicationContext configCtx = new ClassPathXmlApplicationContext("loadGenerator.xml");
+        LoadGenerator generator = configCtx.getBean("loadGenerator", LoadGenerator.class);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < generator.getWorkers(); i++) {
+            workers.add(configCtx.getBean("worker", Worker.class));
+        }
+        boolean success = generator.run(workers);
+        System.exit(success ? 0 : 1);
+    }
+
+    /**
+     * Starts the broker and the workers, runs all clients and prints the report.
+     *
+     * @param workers: Workers to start.
+     * @return true if all algorithm runs completed.
+     */
+    public boolean run(List<Worker> workers) throws Exception {
+        startDaemon(broker::broker, "hlc-broker");
+        for (int i = 0; i < workers.size(); i++) {
+            startDaemon(workers.get(i)::work, "hlc-load-worker-" + i);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Latencies>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            long seed = i;
+            results.add(executor.submit(() -> runClient(new Random(seed))));
+        }
+
+        Latencies total = new Latencies();
+        int failed = 0;
+        for (Future<Latencies> result : results) {
+            Latencies latencies = result.get();
+            total.addAll(latencies);
+            if (latencies.isFailed()) {
+                failed++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        report(total, elapsed, failed);
+        return failed == 0;
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs one algorithm run over a REQ socket.
+     *
+     * @param random: Source of randomness of the client.
+     * @return The latencies of all requests of the run.
+     */
+    private Latencies runClient(Random random) {
+        Latencies latencies = new Latencies();
+        String algorithmRunId = UUID.randomUUID().toString();
+
+        try (ZContext ctx = new ZContext()) {
+            Socket socket = ctx.createSocket(SocketType.REQ);
+            socket.setReceiveTimeOut(timeout);
+            socket.connect(broker.getFrontend());
+
+            StartAlgorithmRequest start = StartAlgorithmRequest.newBuilder()
+                    .setProblemDefinition(ProblemDefinition.newBuilder()
+                            .setLanguageId(1L)
+                            .setSourceCode("int f(int x) { return x; }")
+                            .setFunctionName("f")
+                            .setOutput("1"))
+                    .build();
+            request(socket, algorithmRunId, "1", start, latencies);
+
+            long[] population = new long[populationSize];
+            for (int i = 0; i < populationSize; i++) {
+                SolutionCreatorResponse created = request(socket, algorithmRunId, null,
+                        SolutionCreatorRequest.getDefaultInstance(), latencies).unpack(SolutionCreatorResponse.class);
+                population[i] = created.getSolutionId();
+            }
+            evaluate(socket, algorithmRunId, population, latencies);
+
+            for (int generation = 0; generation < generations; generation++) {
+                long[] offspring = new long[populationSize];
+                for (int i = 0; i < populationSize; i++) {
+                    CrossoverRequest cross = CrossoverRequest.newBuilder()
+                            .setParentSolutionId1(population[random.nextInt(populationSize)])
+                            .setParentSolutionId2(population[random.nextInt(populationSize)])
+                            .build();
+                    offspring[i] = request(socket, algorithmRunId, null, cross, latencies)
+                            .unpack(CrossoverResponse.class).getChildSolutionId();
+
+                    if (random.nextDouble() < mutationProbability) {
+                        ManipulatorRequest mutate = ManipulatorRequest.newBuilder().setSolutionId(offspring[i]).build();
+                        offspring[i] = request(socket, algorithmRunId, null, mutate, latencies)
+                                .unpack(ManipulatorResponse.class).getManipulatedSolutionId();
+                    }
+                }
+                evaluate(socket, algorithmRunId, offspring, latencies);
+                population = offspring;
+            }
+
+            StopAlgorithmRequest stop = StopAlgorithmRequest.newBuilder().setExecutionState(ExecutionState.STOPPED).build();
+            request(socket, algorithmRunId, null, stop, latencies);
+        } catch (InvalidProtocolBufferException | IllegalStateException e) {
+            System.err.println("algorithm run " + algorithmRunId + " failed: " + e.getMessage());
+            latencies.setFailed(true);
+        }
+        return latencies;
+    }
+
+    private void evaluate(Socket socket, String algorithmRunId, long[] solutions, Latencies latencies)
+            throws InvalidProtocolBufferException {
+        if (evaluationBatchSize <= 1) {
+            for (long solution : solutions) {
+                EvaluatorRequest evaluate = EvaluatorRequest.newBuilder().setSolutionId(solution).build();
+                request(socket, algorithmRunId, null, evaluate, latencies).unpack(EvaluatorResponse.class);
+            }
+            return;
+        }
+
+        for (int from = 0; from < solutions.length; from += evaluationBatchSize) {
+            EvaluatorBatchRequest.Builder batch = EvaluatorBatchRequest.newBuilder();
+            for (int i = from; i < Math.min(from + evaluationBatchSize, solutions.length); i++) {
+                batch.addRequests(EvaluatorRequest.newBuilder().setSolutionId(solutions[i]));
+            }
+            request(socket, algorithmRunId, null, batch.build(), latencies).unpack(EvaluatorBatchResponse.class);
+        }
+    }
+
+    /**
+     * Sends a request and waits for the reply.
+     *
+     * @param socket:         REQ socket connected to the broker.
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param language:       ID of the language, only sent with the first message of a run.
+     * @param request:        The request.
+     * @param latencies:      Latencies of the run, the latency of the request is added.
+     * @return The message of the reply.
+     */
+    private Any request(Socket socket, String algorithmRunId, String language, Message request, Latencies latencies)
+            throws InvalidProtocolBufferException {
+        ZMsg msg = new ZMsg();
+        msg.add(algorithmRunId);
+        if (language != null) {
+            msg.add(language);
+        }
+        msg.add(Wrapper.newBuilder().setMessage(Any.pack(request)).build().toByteArray());
+
+        long sent = System.nanoTime();
+        msg.send(socket);
+        ZMsg reply = ZMsg.recvMsg(socket);
+        if (reply == null) {
+            throw new IllegalStateException("no reply to " + request.getClass().getSimpleName() + " within " + timeout + " msecs");
+        }
+        latencies.add(request.getClass().getSimpleName(), System.nanoTime() - sent);
+
+        Any any = Wrapper.parseFrom(reply.getLast().getData()).getMessage();
+        reply.destroy();
+        return any;
+    }
+
+    private void report(Latencies latencies, long elapsed, int failed) {
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format("%d clients, %d workers, %d generations, population size %d, evaluation batch size %d",
+                clients, workers, generations, populationSize, evaluationBatchSize));
+        System.out.println(String.format("%d requests in %.2f s: %.0f requests/s, %d of %d algorithm runs failed",
+                latencies.count(), seconds, latencies.count() / seconds, failed, clients));
+        System.out.println(String.format("%-24s %10s %10s %10s %10s %10s", "message [usecs]", "count", "p50", "p99", "p999", "max"));
+        for (Map.Entry<String, long[]> entry : latencies.sorted().entrySet()) {
+            long[] values = entry.getValue();
+            System.out.println(String.format("%-24s %10d %10.1f %10.1f %10.1f %10.1f", entry.getKey(), values.length,
+                    percentile(values, 0.5), percentile(values, 0.99), percentile(values, 0.999),
+                    values[values.length - 1] / 1e3));
+        }
+    }
+
+    /**
+     * @param sorted:   Sorted latencies in nanoseconds.
+     * @param quantile: Quantile between 0 and 1.
+     * @return The latency at the quantile in microseconds.
+     */
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e3;
+    }
+
+    /**
+     * Latencies of requests by message type.
+     */
+    private static class Latencies {
+        private Map<String, long[]> values = new TreeMap<>();
+        private Map<String, Integer> sizes = new TreeMap<>();
+        private boolean failed;
+
+        void add(String type, long latency) {
+            long[] typeValues = values.computeIfAbsent(type, t -> new long[1024]);
+            int size = sizes.getOrDefault(type, 0);
+            if (size == typeValues.length) {
+                typeValues = Arrays.copyOf(typeValues, size * 2);
+                values.put(type, typeValues);
+            }
+            typeValues[size] = latency;
+            sizes.put(type, size + 1);
+        }
+
+        void addAll(Latencies other) {
+            for (Map.Entry<String, long[]> entry : other.values.entrySet()) {
+                int size = other.sizes.get(entry.getKey());
+                for (int i = 0; i < size; i++) {
+                    add(entry.getKey(), entry.getValue()[i]);
+                }
+            }
+        }
+
+        long count() {
+            return sizes.values().stream().mapToLong(Integer::longValue).sum();
+        }
+
+        /**
+         * @return sorted latencies by message type, including all types combined
+         */
+        Map<String, long[]> sorted() {
+            Map<String, long[]> sorted = new TreeMap<>();
+            long[] all = new long[(int) count()];
+            int offset = 0;
+            for (Map.Entry<String, long[]> entry : values.entrySet()) {
+                int size = sizes.get(entry.getKey());
+                long[] typeValues = Arrays.copyOf(entry.getValue(), size);
+                Arrays.sort(typeValues);
+                sorted.put(entry.getKey(), typeValues);
+                System.arraycopy(typeValues, 0, all, offset, size);
+                offset += size;
+            }
+            if (all.length > 0) {
+                Arrays.sort(all);
+                sorted.put("(all)", all);
+            }
+            return sorted;
+        }
+
+        boolean isFailed() {
+            return failed;
+        }
+
+        void setFailed(boolean failed) {
+            this.failed = failed;
+        }
+    }
+
+    public Broker getBroker() {
+        return broker;
+    }
+
+    public void setBroker(Broker broker) {
+        this.broker = broker;
+    }
+
+    public Integer getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(Integer workers) {
+        this.workers = workers;
+    }
+
+    public Integer getClients() {
+        return clients;
+    }
+
+    public void setClients(Integer clients) {
+        this.clients = clients;
+    }
+
+    public Integer getGenerations() {
+        return generations;
+    }
+
+    public void setGenerations(Integer generations) {
+        this.generations = generations;
+    }
+
+    public Integer getPopulationSize() {
+        return populationSize;
+    }
+
+    public void setPopulationSize(Integer populationSize) {
+        this.populationSize = populationSize;
+    }
+
+    public Double getMutationProbability() {
+        return mutationProbability;
+    }
+
+    public void setMutationProbability(Double mutationProbability) {
+        this.mutationProbability = mutationProbability;
+    }
+
+    public Integer getEvaluationBatchSize() {
+        return evaluationBatchSize;
+    }
+
+    public void setEvaluationBatchSize(Integer evaluationBatchSize) {
+        this.evaluationBatchSize = evaluationBatchSize;
+    }
+
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Integer timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.benchmarks;
+
+import at.fh.hagenberg.aist.hlc.core.FlatTree;
+import at.fh.hagenberg.aist.hlc.core.messages.*;
+import at.fh.hagenberg.aist.hlc.worker.ExampleData;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of Wrapper messages as done by the broker and the workers for every request.
+ * The trees are built from the symbols of ExampleData, in the nested (TreeNode) and the packed (PackedTree) encoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WrapperCodecBenchmark {
+
+    @Param({"15", "255", "4095"})
+    private int treeSize;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private SolutionCreatorResponse nested;
+    private SolutionCreatorResponse packed;
+    private EvaluatorBatchRequest batch;
+
+    private byte[] nestedBytes;
+    private byte[] packedBytes;
+    private byte[] batchBytes;
+
+    @Setup
+    public void setup() {
+        FlatTree tree = randomTree(treeSize, new Random(42));
+        nested = SolutionCreatorResponse.newBuilder().setSolutionId(1L).setTree(tree.toTreeNode()).build();
+        packed = SolutionCreatorResponse.newBuilder().setSolutionId(1L).setPackedTree(tree.toPackedTree()).build();
+
+        EvaluatorBatchRequest.Builder builder = EvaluatorBatchRequest.newBuilder();
+        for (long i = 0; i < batchSize; i++) {
+            builder.addRequests(EvaluatorRequest.newBuilder().setSolutionId(i));
+        }
+        batch = builder.build();
+
+        nestedBytes = wrap(nested);
+        packedBytes = wrap(packed);
+        batchBytes = wrap(batch);
+    }
+
+    /**
+     * Creates a balanced tree of random binary functions and terminals of ExampleData.
+     * The tree is balanced, as nested trees deeper than the recursion limit of protobuf can not be parsed.
+     *
+     * @param size   number of nodes, rounded up to an odd number
+     * @param random source of randomness
+     * @return the tree with IDs 1..size in prefix order
+     */
+    static FlatTree randomTree(int size, Random random) {
+        ExampleData data = new ExampleData();
+        List<Symbol> functions = new ArrayList<>();
+        List<Symbol> terminals = new ArrayList<>();
+        for (Symbol symbol : Collections.list(data.getSymbols().elements())) {
+            if (symbol.getMaximumArity() == 2) {
+                functions.add(symbol);
+            } else if (symbol.getMaximumArity() == 0) {
+                terminals.add(symbol);
+            }
+        }
+
+        size |= 1;
+        long[] symbolIds = new long[size];
+        int[] arities = new int[size];
+        long[] ids = new long[size];
+
+        //  Traverse the complete binary tree in level order numbering (children of k are 2k+1 and 2k+2) in prefix order
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        for (int i = 0; i < size; i++) {
+            int k = stack.pop();
+            boolean function = 2 * k + 2 < size;
+            Symbol symbol = function
+                    ? functions.get(random.nextInt(functions.size()))
+                    : terminals.get(random.nextInt(terminals.size()));
+            symbolIds[i] = symbol.getId();
+            arities[i] = function ? 2 : 0;
+            ids[i] = i + 1;
+            if (function) {
+                stack.push(2 * k + 2);
+                stack.push(2 * k + 1);
+            }
+        }
+        return new FlatTree(symbolIds, arities, ids);
+    }
+
+    private static byte[] wrap(com.google.protobuf.Message message) {
+        return Wrapper.newBuilder().setMessage(Any.pack(message)).build().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeNestedTree() {
+        return wrap(nested);
+    }
+
+    @Benchmark
+    public SolutionCreatorResponse decodeNestedTree() throws InvalidProtocolBufferException {
+        return Wrapper.parseFrom(nestedBytes).getMessage().unpack(SolutionCreatorResponse.class);
+    }
+
+    @Benchmark
+    public byte[] encodePackedTree() {
+        return wrap(packed);
+    }
+
+    @Benchmark
+    public SolutionCreatorResponse decodePackedTree() throws InvalidProtocolBufferException {
+        return Wrapper.parseFrom(packedBytes).getMessage().unpack(SolutionCreatorResponse.class);
+    }
+
+    @Benchmark
+    public byte[] encodeEvaluatorBatch() {
+        return wrap(batch);
+    }
+
+    @Benchmark
+    public EvaluatorBatchRequest decodeEvaluatorBatch() throws InvalidProtocolBufferException {
+        return Wrapper.parseFrom(batchBytes).getMessage().unpack(EvaluatorBatchRequest.class);
+    }
+}
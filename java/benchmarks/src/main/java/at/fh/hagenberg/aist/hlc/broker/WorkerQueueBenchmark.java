@@ -0,0 +1,116 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import at.fh.hagenberg.aist.hlc.core.UuidHelper;
+import org.openjdk.jmh.annotations.*;
+import org.zeromq.ZFrame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of the broker on the WorkerQueue with hundreds of registered workers.
+ * Every benchmark returns the taken workers to the queue, as the broker does when they reply.
+ * Half of the workers support language 0, all workers support language 1, every tenth worker is a config worker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkerQueueBenchmark {
+
+    @Param({"100", "500"})
+    private int workers;
+
+    private WorkerQueue queue;
+    private Map<String, Worker> registeredWorkers;
+    private List<Worker> allWorkers;
+    private Set<Worker> excluded;
+    private int next;
+
+    @Setup
+    public void setup() {
+        queue = new WorkerQueue();
+        registeredWorkers = new HashMap<>();
+        allWorkers = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            List<Long> languages = i % 2 == 0 ? Arrays.asList(0L, 1L) : Collections.singletonList(1L);
+            ZFrame address = new ZFrame(UuidHelper.getBytesFromUUID(UUID.randomUUID()));
+            Worker worker = new Worker(address, languages, i % 10 == 0, 1, 1000, 3);
+            registeredWorkers.put(worker.getIdentity(), worker);
+            allWorkers.add(worker);
+            queue.push(worker);
+        }
+
+        //  Workers of a run that are busy
+        excluded = new HashSet<>(allWorkers.subList(0, 2));
+    }
+
+    /**
+     * Returns a worker to the queue, looked up by its address as the broker does for a reply.
+     */
+    private void reply(ZFrame address) {
+        Worker worker = registeredWorkers.get(Worker.getIdentity(address.getData()));
+        worker.release();
+        queue.push(worker);
+    }
+
+    @Benchmark
+    public void popWorker() {
+        //  A request of a new run: the least recently used worker of the language is selected and taken
+        reply(queue.pop(queue.peek(0L, Collections.emptySet())));
+    }
+
+    @Benchmark
+    public void popConfigWorker() {
+        reply(queue.pop(true));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void selectWorkers() {
+        //  A batch split across 8 workers, selected one after the other as the broker binds them to the run
+        Set<Worker> selected = new HashSet<>();
+        Worker worker;
+        while (selected.size() < 8 && (worker = queue.peek(1L, selected)) != null) {
+            selected.add(worker);
+        }
+        for (Worker w : selected) {
+            reply(queue.pop(w));
+        }
+    }
+
+    @Benchmark
+    public Worker peekExcluded() {
+        return queue.peek(0L, excluded);
+    }
+
+    @Benchmark
+    public boolean removeAndPush() {
+        //  A purged worker that registers again
+        Worker worker = allWorkers.get(next++ % allWorkers.size());
+        boolean removed = queue.remove(worker);
+        queue.push(worker);
+        return removed;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.worker;
+
+import at.fh.hagenberg.aist.hlc.core.messages.*;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link Worker#processAnyMessage(Any, String)}: unpacking, logging and dispatching a request
+ * to the external worker, without any network I/O. The external worker is ExampleExternalOptimizationWorker,
+ * which only looks up predefined results, so the measured time is the overhead of the Worker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkerDispatchBenchmark {
+
+    private static final String ALGORITHM_RUN_ID = "benchmark";
+
+    @Param({"NESTED", "PACKED"})
+    private TreeEncoding treeEncoding;
+
+    private Worker worker;
+
+    private Any create;
+    private Any evaluate;
+    private Any cross;
+    private Any evaluateBatch;
+
+    @Setup
+    public void setup() throws InvalidProtocolBufferException {
+        try (ClassPathXmlApplicationContext configCtx = new ClassPathXmlApplicationContext("benchmarks.xml")) {
+            worker = configCtx.getBean("worker", Worker.class);
+        }
+
+        StartAlgorithmRequest start = StartAlgorithmRequest.newBuilder()
+                .setProblemDefinition(ProblemDefinition.newBuilder()
+                        .setLanguageId(1L)
+                        .setSourceCode("int f(int x) { return x; }")
+                        .setFunctionName("f")
+                        .setOutput("1"))
+                .setTreeEncoding(treeEncoding)
+                .build();
+        worker.processAnyMessage(Any.pack(start), ALGORITHM_RUN_ID);
+
+        create = Any.pack(SolutionCreatorRequest.getDefaultInstance());
+        evaluate = Any.pack(EvaluatorRequest.newBuilder().setSolutionId(1L).build());
+        cross = Any.pack(CrossoverRequest.newBuilder().setParentSolutionId1(1L).setParentSolutionId2(2L).build());
+
+        EvaluatorBatchRequest.Builder batch = EvaluatorBatchRequest.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            batch.addRequests(EvaluatorRequest.newBuilder().setSolutionId(i % 2 + 1));
+        }
+        evaluateBatch = Any.pack(batch.build());
+    }
+
+    @Benchmark
+    public Message create() throws InvalidProtocolBufferException {
+        return worker.processAnyMessage(create, ALGORITHM_RUN_ID);
+    }
+
+    @Benchmark
+    public Message evaluate() throws InvalidProtocolBufferException {
+        return worker.processAnyMessage(evaluate, ALGORITHM_RUN_ID);
+    }
+
+    @Benchmark
+    public Message cross() throws InvalidProtocolBufferException {
+        return worker.processAnyMessage(cross, ALGORITHM_RUN_ID);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public Message evaluateBatch() throws InvalidProtocolBufferException {
+        return worker.processAnyMessage(evaluateBatch, ALGORITHM_RUN_ID);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.*;
+import com.google.protobuf.Any;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper for the batch forms of the operator messages (e.g. EvaluatorBatchRequest).
+ * All batch messages contain their single requests/responses as repeated field 1.
+ */
+public class BatchMessages {
+
+    /**
+     * Batch request types by full name.
+     */
+    private static final Map<String, BatchType> REQUESTS = new HashMap<>();
+
+    /**
+     * Batch response types by full name.
+     */
+    private static final Map<String, BatchType> RESPONSES = new HashMap<>();
+
+    static {
+        register(SolutionCreatorBatchRequest.getDefaultInstance(), SolutionCreatorBatchResponse.getDefaultInstance());
+        register(EvaluatorBatchRequest.getDefaultInstance(), EvaluatorBatchResponse.getDefaultInstance());
+        register(CrossoverBatchRequest.getDefaultInstance(), CrossoverBatchResponse.getDefaultInstance());
+        register(ManipulatorBatchRequest.getDefaultInstance(), ManipulatorBatchResponse.getDefaultInstance());
+    }
+
+    private static void register(Message request, Message response) {
+        BatchType type = new BatchType(request, response);
+        REQUESTS.put(request.getDescriptorForType().getFullName(), type);
+        RESPONSES.put(response.getDescriptorForType().getFullName(), type);
+    }
+
+    private static String getTypeName(Any any) {
+        String typeUrl = any.getTypeUrl();
+        return typeUrl.substring(typeUrl.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @param any message to check
+     * @return true if the message is one of the batch requests
+     */
+    public static boolean isBatchRequest(Any any) {
+        return REQUESTS.containsKey(getTypeName(any));
+    }
+
+    /**
+     * @param typeName full name of the message type, see {@link WrapperHelper#getTypeName(byte[])}
+     * @return true if the type is one of the batch requests
+     */
+    public static boolean isBatchRequest(String typeName) {
+        return REQUESTS.containsKey(typeName);
+    }
+
+    /**
+     * @param any message to check
+     * @return true if the message is one of the batch responses
+     */
+    public static boolean isBatchResponse(Any any) {
+        return RESPONSES.containsKey(getTypeName(any));
+    }
+
+    /**
+     * Unpacks the single operator requests of a batch request.
+     *
+     * @param any batch request
+     * @return single requests in the order of the batch
+     * @throws InvalidProtocolBufferException if the message is not a valid batch request
+     */
+    public static List<Message> unpackRequests(Any any) throws InvalidProtocolBufferException {
+        BatchType type = getType(REQUESTS, any);
+        return getEntries(type.request.getParserForType().parseFrom(any.getValue()));
+    }
+
+    /**
+     * Creates the batch response matching a batch request.
+     *
+     * @param request   batch request that was processed
+     * @param responses single responses in the order of the requests
+     * @return batch response containing all responses
+     */
+    public static Message packResponses(Any request, List<? extends Message> responses) {
+        return build(getType(REQUESTS, request).response, responses);
+    }
+
+    /**
+     * Splits a batch request into at most the given number of consecutive batch requests of similar size.
+     *
+     * @param any    batch request to split
+     * @param chunks maximum number of resulting batch requests
+     * @return batch requests that contain all single requests in the original order
+     * @throws InvalidProtocolBufferException if the message is not a valid batch request
+     */
+    public static List<Any> split(Any any, int chunks) throws InvalidProtocolBufferException {
+        BatchType type = getType(REQUESTS, any);
+        List<Message> requests = getEntries(type.request.getParserForType().parseFrom(any.getValue()));
+
+        List<Any> parts = new ArrayList<>();
+        int size = requests.size();
+        chunks = Math.max(1, Math.min(chunks, size));
+        for (int i = 0; i < chunks; i++) {
+            List<Message> chunk = requests.subList(i * size / chunks, (i + 1) * size / chunks);
+            parts.add(Any.pack(build(type.request, chunk)));
+        }
+        return parts;
+    }
+
+    /**
+     * Merges batch responses (e.g. of previously split requests) into a single batch response.
+     *
+     * @param parts batch responses of the same type in the order of the requests
+     * @return batch response that contains all single responses in order
+     * @throws InvalidProtocolBufferException if a message is not a valid batch response
+     */
+    public static Any merge(List<Any> parts) throws InvalidProtocolBufferException {
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("at least one batch response is required");
+        }
+
+        BatchType type = getType(RESPONSES, parts.get(0));
+        List<Message> responses = new ArrayList<>();
+        for (Any part : parts) {
+            if (!type.equals(RESPONSES.get(getTypeName(part)))) {
+                throw new IllegalArgumentException("Batch responses of different types can not be merged: " + part.getTypeUrl());
+            }
+            responses.addAll(getEntries(type.response.getParserForType().parseFrom(part.getValue())));
+        }
+        return Any.pack(build(type.response, responses));
+    }
+
+    /**
+     * Counts the single requests of a batch request.
+     *
+     * @param any batch request
+     * @return number of single requests
+     * @throws InvalidProtocolBufferException if the message is not a valid batch request
+     */
+    public static int count(Any any) throws InvalidProtocolBufferException {
+        BatchType type = getType(REQUESTS, any);
+        Message batch = type.request.getParserForType().parseFrom(any.getValue());
+        return batch.getRepeatedFieldCount(getEntriesField(batch));
+    }
+
+    private static BatchType getType(Map<String, BatchType> types, Any any) {
+        BatchType type = types.get(getTypeName(any));
+        if (type == null) {
+            throw new UnsupportedOperationException("Message of type " + any.getTypeUrl() + " is not a batch message.");
+        }
+        return type;
+    }
+
+    private static FieldDescriptor getEntriesField(Message batch) {
+        return batch.getDescriptorForType().findFieldByNumber(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Message> getEntries(Message batch) {
+        return (List<Message>) batch.getField(getEntriesField(batch));
+    }
+
+    private static Message build(Message prototype, List<? extends Message> entries) {
+        Message.Builder builder = prototype.newBuilderForType();
+        FieldDescriptor field = getEntriesField(prototype);
+        for (Message entry : entries) {
+            builder.addRepeatedField(field, entry);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Pair of a batch request and the matching batch response.
+     */
+    private static class BatchType {
+        private final Message request;
+        private final Message response;
+
+        private BatchType(Message request, Message response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+}
@@ -14,6 +14,9 @@ package at.fh.hagenberg.aist.hlc.core;
 import at.fh.hagenberg.aist.hlc.core.messages.*;
 import com.google.protobuf.Message;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Interfaces for workers. These workers must implement ALL features of this interface.
  * @author Oliver Krauss on 17.04.2019
@@ -36,6 +39,22 @@ public interface ExternalOptimizationWorker {
      */
     Message operate(String algorithmRunId, Message request);
 
+    /**
+     * Executes an operator for a whole batch of requests (e.g. evaluates a whole generation).
+     * The default implementation calls {@link #operate(String, Message)} for every request,
+     * workers that can process several requests at once should override it.
+     * @param algorithmRunId ID of the algorithm run
+     * @param requests with parameters of the operator, all of the same type
+     * @return outcomes of the operator in the same order as the requests
+     */
+    default List<Message> operateBatch(String algorithmRunId, List<Message> requests) {
+        List<Message> responses = new ArrayList<>(requests.size());
+        for (Message request : requests) {
+            responses.add(operate(algorithmRunId, request));
+        }
+        return responses;
+    }
+
     /**
      * Shuts down the truffle engine and clears memory related to this worker
      * @param algorithmRunId ID of the algorithm run
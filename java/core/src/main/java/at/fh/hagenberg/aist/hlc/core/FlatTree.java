@@ -0,0 +1,200 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.PackedTree;
+import at.fh.hagenberg.aist.hlc.core.messages.TreeNode;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Tree stored in primitive arrays: the nodes in prefix order (parent before its children) with the number of
+ * children (arity) of each node. Used for the PackedTree encoding, all conversions are iterative,
+ * so very deep trees do not overflow the stack.
+ */
+public class FlatTree {
+
+    private final long[] symbolIds;
+    private final int[] arities;
+    private final long[] ids; // null if the nodes have no IDs
+
+    /**
+     * @param symbolIds IDs of the symbols of the nodes in prefix order
+     * @param arities   number of children of the nodes in prefix order
+     * @param ids       IDs of the nodes in prefix order, or null
+     */
+    public FlatTree(long[] symbolIds, int[] arities, long[] ids) {
+        if (symbolIds.length != arities.length || (ids != null && ids.length != symbolIds.length)) {
+            throw new IllegalArgumentException("symbolIds, arities and ids must have the same length");
+        }
+        this.symbolIds = symbolIds;
+        this.arities = arities;
+        this.ids = ids;
+    }
+
+    /**
+     * Flattens a tree.
+     * @param tree root node of the tree
+     * @param withIds whether the IDs of the nodes are kept
+     * @return the flat tree
+     */
+    public static FlatTree of(TreeNode tree, boolean withIds) {
+        int capacity = 16;
+        long[] symbolIds = new long[capacity];
+        int[] arities = new int[capacity];
+        long[] ids = withIds ? new long[capacity] : null;
+        int size = 0;
+
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(tree);
+        while (!stack.isEmpty()) {
+            TreeNode node = stack.pop();
+            if (size == capacity) {
+                capacity *= 2;
+                symbolIds = Arrays.copyOf(symbolIds, capacity);
+                arities = Arrays.copyOf(arities, capacity);
+                ids = withIds ? Arrays.copyOf(ids, capacity) : null;
+            }
+            symbolIds[size] = node.getSymbolId();
+            arities[size] = node.getChildrenCount();
+            if (withIds) {
+                ids[size] = node.getId();
+            }
+            size++;
+            for (int i = node.getChildrenCount() - 1; i >= 0; i--) {
+                stack.push(node.getChildren(i));
+            }
+        }
+
+        return new FlatTree(Arrays.copyOf(symbolIds, size), Arrays.copyOf(arities, size),
+                withIds ? Arrays.copyOf(ids, size) : null);
+    }
+
+    /**
+     * Flattens a tree, the IDs of the nodes are kept only if any of them is set (non-zero).
+     * @param tree root node of the tree
+     * @return the flat tree
+     */
+    public static FlatTree of(TreeNode tree) {
+        FlatTree flat = of(tree, true);
+        for (long id : flat.ids) {
+            if (id != 0) {
+                return flat;
+            }
+        }
+        return new FlatTree(flat.symbolIds, flat.arities, null);
+    }
+
+    /**
+     * @param tree packed tree
+     * @return the flat tree
+     * @throws IllegalArgumentException if the tree does not have an arity (and an ID, if any) for each symbol ID
+     */
+    public static FlatTree of(PackedTree tree) {
+        int size = tree.getSymbolIdsCount();
+        if (tree.getAritiesCount() != size || (tree.getIdsCount() > 0 && tree.getIdsCount() != size)) {
+            throw new IllegalArgumentException("packed tree has " + size + " symbol IDs, but " +
+                    tree.getAritiesCount() + " arities and " + tree.getIdsCount() + " IDs");
+        }
+        long[] symbolIds = new long[size];
+        int[] arities = new int[size];
+        long[] ids = tree.getIdsCount() > 0 ? new long[size] : null;
+        for (int i = 0; i < size; i++) {
+            symbolIds[i] = tree.getSymbolIds(i);
+            arities[i] = tree.getArities(i);
+            if (ids != null) {
+                ids[i] = tree.getIds(i);
+            }
+        }
+        return new FlatTree(symbolIds, arities, ids);
+    }
+
+    /**
+     * @return the tree as PackedTree message
+     */
+    public PackedTree toPackedTree() {
+        PackedTree.Builder builder = PackedTree.newBuilder();
+        for (int i = 0; i < symbolIds.length; i++) {
+            builder.addSymbolIds(symbolIds[i]);
+            builder.addArities(arities[i]);
+            if (ids != null) {
+                builder.addIds(ids[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the nested tree bottom-up: in reverse prefix order the children of a node
+     * are the last built subtrees.
+     * @return root node of the tree
+     */
+    public TreeNode toTreeNode() {
+        Deque<TreeNode> built = new ArrayDeque<>();
+        for (int i = symbolIds.length - 1; i >= 0; i--) {
+            TreeNode.Builder node = TreeNode.newBuilder().setSymbolId(symbolIds[i]);
+            if (ids != null) {
+                node.setId(ids[i]);
+            }
+            for (int child = 0; child < arities[i]; child++) {
+                if (built.isEmpty()) {
+                    throw new IllegalStateException("arity of node " + i + " exceeds the number of following nodes");
+                }
+                node.addChildren(built.pop());
+            }
+            built.push(node.build());
+        }
+        if (built.size() != 1) {
+            throw new IllegalStateException("arities do not describe a single tree");
+        }
+        return built.pop();
+    }
+
+    /**
+     * @param node index of a node in prefix order
+     * @return index after the last node of the subtree rooted at the node
+     */
+    public int subtreeEnd(int node) {
+        int open = 1;
+        int i = node;
+        while (open > 0) {
+            open += arities[i] - 1;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return number of nodes
+     */
+    public int size() {
+        return symbolIds.length;
+    }
+
+    public long getSymbolId(int node) {
+        return symbolIds[node];
+    }
+
+    public int getArity(int node) {
+        return arities[node];
+    }
+
+    public boolean hasIds() {
+        return ids != null;
+    }
+
+    public long getId(int node) {
+        return ids[node];
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe statistics per message type: number of messages, bytes in and out and latencies.
+ * Types are identified by their full name or type URL, the statistics of a type are created on first use,
+ * afterwards recording does not allocate.
+ */
+public class MessageStatistics {
+
+    private final ConcurrentMap<String, Type> types = new ConcurrentHashMap<>();
+    //  Types looked up by their encoded type URL, copied on write
+    private volatile TypeUrl[] typeUrls = new TypeUrl[0];
+
+    /**
+     * @param typeName full name or type URL of the message type
+     * @return the statistics of the type
+     */
+    public Type get(String typeName) {
+        Type type = types.get(typeName);
+        return type != null ? type : types.computeIfAbsent(typeName, t -> new Type());
+    }
+
+    /**
+     * Looks up the statistics of a type by its UTF-8 encoded type URL, without allocating once the type is known.
+     *
+     * @param data   data containing the type URL (see {@link WrapperHelper#findTypeUrl(byte[])})
+     * @param offset offset of the type URL in the data
+     * @param length length of the type URL
+     * @return the statistics of the type
+     */
+    public Type get(byte[] data, int offset, int length) {
+        for (TypeUrl typeUrl : typeUrls) {
+            if (typeUrl.matches(data, offset, length)) {
+                return typeUrl.type;
+            }
+        }
+        synchronized (this) {
+            byte[] url = Arrays.copyOfRange(data, offset, offset + length);
+            Type type = get(new String(url, StandardCharsets.UTF_8));
+            TypeUrl[] grown = Arrays.copyOf(typeUrls, typeUrls.length + 1);
+            grown[typeUrls.length] = new TypeUrl(url, type);
+            typeUrls = grown;
+            return type;
+        }
+    }
+
+    /**
+     * @return number of messages by simple type name
+     */
+    public Map<String, Long> getCounts() {
+        return collect(type -> type.count.get());
+    }
+
+    /**
+     * @return received bytes by simple type name
+     */
+    public Map<String, Long> getBytesIn() {
+        return collect(type -> type.bytesIn.get());
+    }
+
+    /**
+     * @return sent bytes by simple type name
+     */
+    public Map<String, Long> getBytesOut() {
+        return collect(type -> type.bytesOut.get());
+    }
+
+    /**
+     * @return latencies by simple type name
+     */
+    public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        Map<String, LatencyHistogram.Snapshot> latencies = new TreeMap<>();
+        types.forEach((name, type) -> {
+            if (type.latency.getCount() > 0) {
+                latencies.put(getSimpleName(name), type.latency.snapshot());
+            }
+        });
+        return latencies;
+    }
+
+    private Map<String, Long> collect(ToLongFunction<Type> value) {
+        Map<String, Long> values = new TreeMap<>();
+        types.forEach((name, type) -> values.merge(getSimpleName(name), value.applyAsLong(type), Long::sum));
+        //  Request and reply types share the statistics, each only has values in one direction
+        values.values().removeIf(v -> v == 0);
+        return values;
+    }
+
+    private static String getSimpleName(String typeName) {
+        return typeName.substring(Math.max(typeName.lastIndexOf('.'), typeName.lastIndexOf('/')) + 1);
+    }
+
+    private static class TypeUrl {
+        private final byte[] url;
+        private final Type type;
+
+        private TypeUrl(byte[] url, Type type) {
+            this.url = url;
+            this.type = type;
+        }
+
+        private boolean matches(byte[] data, int offset, int length) {
+            if (url.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (url[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Statistics of a single message type.
+     */
+    public static class Type {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Records a received message.
+         * @param bytes size of the message
+         */
+        public void received(long bytes) {
+            count.incrementAndGet();
+            bytesIn.addAndGet(bytes);
+        }
+
+        /**
+         * Records a sent message.
+         * @param bytes size of the message
+         */
+        public void sent(long bytes) {
+            bytesOut.addAndGet(bytes);
+        }
+
+        /**
+         * @param nanos latency of a message in nanoseconds
+         */
+        public void latency(long nanos) {
+            latency.record(nanos);
+        }
+    }
+}
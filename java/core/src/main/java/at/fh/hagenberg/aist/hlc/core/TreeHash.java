@@ -0,0 +1,162 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.PackedTree;
+import at.fh.hagenberg.aist.hlc.core.messages.TreeNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Structural hash of trees. Two trees have the same hash if they have the same shape and the same symbols,
+ * the IDs of the nodes are ignored.
+ * A {@link Key} combines the hash with a second, independent hash, to tell apart trees whose 64-bit hashes collide.
+ */
+public class TreeHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long CHECKSUM_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Computes the hash and the checksum over the symbol IDs and arities of the nodes in pre-order,
+     * which identify the tree unambiguously. The tree is traversed iteratively, so deep trees do not overflow the stack.
+     * @param tree root node of the tree
+     * @return hash and checksum of the tree
+     */
+    public static Key key(TreeNode tree) {
+        long hash = FNV_OFFSET_BASIS;
+        long checksum = 0;
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(tree);
+        while (!stack.isEmpty()) {
+            TreeNode node = stack.pop();
+            hash = mix(hash, node.getSymbolId());
+            hash = mix(hash, node.getChildrenCount());
+            checksum = add(checksum, node.getSymbolId(), node.getChildrenCount());
+            for (int i = node.getChildrenCount() - 1; i >= 0; i--) {
+                stack.push(node.getChildren(i));
+            }
+        }
+        return new Key(finish(hash), checksum);
+    }
+
+    /**
+     * @param tree flat tree
+     * @return hash and checksum of the tree, the same as for the nested tree
+     */
+    public static Key key(FlatTree tree) {
+        long hash = FNV_OFFSET_BASIS;
+        long checksum = 0;
+        for (int i = 0; i < tree.size(); i++) {
+            hash = mix(hash, tree.getSymbolId(i));
+            hash = mix(hash, tree.getArity(i));
+            checksum = add(checksum, tree.getSymbolId(i), tree.getArity(i));
+        }
+        return new Key(finish(hash), checksum);
+    }
+
+    /**
+     * @param tree packed tree
+     * @return hash and checksum of the tree, the same as for the nested tree
+     */
+    public static Key key(PackedTree tree) {
+        long hash = FNV_OFFSET_BASIS;
+        long checksum = 0;
+        for (int i = 0; i < tree.getSymbolIdsCount(); i++) {
+            hash = mix(hash, tree.getSymbolIds(i));
+            hash = mix(hash, tree.getArities(i));
+            checksum = add(checksum, tree.getSymbolIds(i), tree.getArities(i));
+        }
+        return new Key(finish(hash), checksum);
+    }
+
+    /**
+     * Adds a node to a checksum (polynomial hash over the symbol ID and arity, independent of {@link #mix}).
+     * @param checksum current checksum
+     * @param symbolId symbol ID of the node
+     * @param arity    number of children of the node
+     * @return the new checksum
+     */
+    static long add(long checksum, long symbolId, long arity) {
+        checksum = checksum * CHECKSUM_MULTIPLIER + symbolId;
+        return checksum * CHECKSUM_MULTIPLIER + arity;
+    }
+
+    /**
+     * Adds a value to a hash (FNV-1a over the bytes of the value).
+     * @param hash current hash
+     * @param value value to add
+     * @return the new hash
+     */
+    static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xff;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of a hash (finalizer of MurmurHash3), so the hash can be used for bucketing.
+     * @param hash hash to finish
+     * @return the finished hash
+     */
+    static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53a87cdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Hash of a tree together with an independent checksum, equal only if both match.
+     */
+    public static final class Key {
+        private final long hash;
+        private final long checksum;
+
+        Key(long hash, long checksum) {
+            this.hash = hash;
+            this.checksum = checksum;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && checksum == key.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+    }
+}
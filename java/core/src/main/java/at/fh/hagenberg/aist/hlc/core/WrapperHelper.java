@@ -0,0 +1,171 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.Wrapper;
+import com.google.protobuf.Any;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+
+/**
+ * Helper for serialized Wrapper messages, used to route messages without parsing them.
+ */
+public class WrapperHelper {
+
+    /**
+     * Reads the type of the message contained in a serialized Wrapper, without copying or parsing the message itself.
+     *
+     * @param wrapper serialized Wrapper
+     * @return full name of the message type (e.g. HeuristicLab.TruffleConnector.Messages.EvaluatorRequest),
+     * or an empty string if the Wrapper contains no message
+     * @throws InvalidProtocolBufferException if the data is not a valid Wrapper
+     */
+    public static String getTypeName(byte[] wrapper) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream input = CodedInputStream.newInstance(wrapper);
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) != Wrapper.MESSAGE_FIELD_NUMBER) {
+                    input.skipField(tag);
+                    continue;
+                }
+
+                int limit = input.pushLimit(input.readRawVarint32());
+                while ((tag = input.readTag()) != 0) {
+                    if (WireFormat.getTagFieldNumber(tag) == Any.TYPE_URL_FIELD_NUMBER) {
+                        String typeUrl = input.readStringRequireUtf8();
+                        return typeUrl.substring(typeUrl.lastIndexOf('/') + 1);
+                    }
+                    input.skipField(tag);
+                }
+                input.popLimit(limit);
+            }
+            return "";
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e);
+        }
+    }
+
+    /**
+     * Finds the type URL of the message contained in a serialized Wrapper, without allocating,
+     * e.g. to look up statistics by message type (see {@link MessageStatistics#get(byte[], int, int)}).
+     *
+     * @param wrapper serialized Wrapper
+     * @return offset of the UTF-8 encoded type URL in the upper and its length in the lower 32 bits,
+     * or -1 if the Wrapper contains no message or is not a valid Wrapper
+     */
+    public static long findTypeUrl(byte[] wrapper) {
+        int pos = 0;
+        int end = wrapper.length;
+        boolean inMessage = false;
+        while (pos < end) {
+            long tag = readVarint(wrapper, pos, end);
+            pos = skipVarint(wrapper, pos);
+            if (tag <= 0) {
+                return -1;
+            }
+
+            int field = WireFormat.getTagFieldNumber((int) tag);
+            switch (WireFormat.getTagWireType((int) tag)) {
+                case WireFormat.WIRETYPE_VARINT:
+                    pos = skipVarint(wrapper, pos);
+                    break;
+                case WireFormat.WIRETYPE_FIXED64:
+                    pos += 8;
+                    break;
+                case WireFormat.WIRETYPE_FIXED32:
+                    pos += 4;
+                    break;
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    long length = readVarint(wrapper, pos, end);
+                    pos = skipVarint(wrapper, pos);
+                    if (length < 0 || pos + length > end) {
+                        return -1;
+                    }
+                    if (!inMessage && field == Wrapper.MESSAGE_FIELD_NUMBER) {
+                        //  Continue inside the Any
+                        inMessage = true;
+                        end = pos + (int) length;
+                    } else if (inMessage && field == Any.TYPE_URL_FIELD_NUMBER) {
+                        return ((long) pos << 32) | length;
+                    } else {
+                        pos += (int) length;
+                    }
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static long readVarint(byte[] data, int pos, int end) {
+        long value = 0;
+        for (int shift = 0; pos < end && shift < 64; shift += 7) {
+            byte b = data[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipVarint(byte[] data, int pos) {
+        while (pos < data.length && data[pos] < 0) {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Reads the request ID of a serialized Wrapper, without copying or parsing the message itself.
+     *
+     * @param wrapper serialized Wrapper
+     * @return request ID, or 0 if the Wrapper has none
+     * @throws InvalidProtocolBufferException if the data is not a valid Wrapper
+     */
+    public static long getRequestId(byte[] wrapper) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream input = CodedInputStream.newInstance(wrapper);
+            long requestId = 0;
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == Wrapper.REQUESTID_FIELD_NUMBER) {
+                    requestId = input.readInt64();
+                } else {
+                    input.skipField(tag);
+                }
+            }
+            return requestId;
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e);
+        }
+    }
+
+    /**
+     * @param typeName full name of a message type, see {@link #getTypeName(byte[])}
+     * @param type     default instance of a message type
+     * @return true if the name is the name of the type
+     */
+    public static boolean is(String typeName, Message type) {
+        return type.getDescriptorForType().getFullName().equals(typeName);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.*;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BatchMessagesTest {
+
+    private static Any requests(int count) {
+        EvaluatorBatchRequest.Builder batch = EvaluatorBatchRequest.newBuilder();
+        for (int i = 0; i < count; i++) {
+            batch.addRequests(EvaluatorRequest.newBuilder().setSolutionId(i));
+        }
+        return Any.pack(batch.build());
+    }
+
+    private static Any responses(int from, int to) {
+        EvaluatorBatchResponse.Builder batch = EvaluatorBatchResponse.newBuilder();
+        for (int i = from; i < to; i++) {
+            batch.addResponses(EvaluatorResponse.newBuilder().setSolutionId(i).setQuality(i / 2.0));
+        }
+        return Any.pack(batch.build());
+    }
+
+    @Test
+    public void testIsBatch() {
+        Assert.assertTrue(BatchMessages.isBatchRequest(requests(1)));
+        Assert.assertTrue(BatchMessages.isBatchRequest(EvaluatorBatchRequest.getDescriptor().getFullName()));
+        Assert.assertFalse(BatchMessages.isBatchRequest(Any.pack(EvaluatorRequest.getDefaultInstance())));
+        Assert.assertFalse(BatchMessages.isBatchRequest(responses(0, 1)));
+
+        Assert.assertTrue(BatchMessages.isBatchResponse(responses(0, 1)));
+        Assert.assertFalse(BatchMessages.isBatchResponse(requests(1)));
+        Assert.assertFalse(BatchMessages.isBatchResponse(Any.pack(Empty.getDefaultInstance())));
+    }
+
+    @Test
+    public void testUnpackAndPack() throws InvalidProtocolBufferException {
+        Any request = requests(3);
+        List<Message> requests = BatchMessages.unpackRequests(request);
+
+        Assert.assertEquals(requests.size(), 3);
+        Assert.assertEquals(((EvaluatorRequest) requests.get(2)).getSolutionId(), 2);
+
+        List<Message> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(EvaluatorResponse.newBuilder().setSolutionId(i).setQuality(i / 2.0).build());
+        }
+        Assert.assertEquals(Any.pack(BatchMessages.packResponses(request, responses)), responses(0, 3));
+    }
+
+    @Test
+    public void testCount() throws InvalidProtocolBufferException {
+        Assert.assertEquals(BatchMessages.count(requests(7)), 7);
+        Assert.assertEquals(BatchMessages.count(requests(0)), 0);
+    }
+
+    @Test
+    public void testSplit() throws InvalidProtocolBufferException {
+        List<Any> parts = BatchMessages.split(requests(10), 3);
+
+        Assert.assertEquals(parts.size(), 3);
+        List<Message> requests = new ArrayList<>();
+        for (Any part : parts) {
+            Assert.assertTrue(BatchMessages.isBatchRequest(part));
+            int count = BatchMessages.count(part);
+            Assert.assertTrue(count == 3 || count == 4, "parts of similar size");
+            requests.addAll(BatchMessages.unpackRequests(part));
+        }
+        Assert.assertEquals(requests, BatchMessages.unpackRequests(requests(10)));
+    }
+
+    @Test
+    public void testSplitIntoMoreChunksThanRequests() throws InvalidProtocolBufferException {
+        List<Any> parts = BatchMessages.split(requests(2), 5);
+
+        Assert.assertEquals(parts.size(), 2);
+        Assert.assertEquals(BatchMessages.count(parts.get(0)), 1);
+        Assert.assertEquals(BatchMessages.count(parts.get(1)), 1);
+    }
+
+    @Test
+    public void testMerge() throws InvalidProtocolBufferException {
+        Any merged = BatchMessages.merge(Arrays.asList(responses(0, 3), responses(3, 4), responses(4, 10)));
+
+        Assert.assertEquals(merged, responses(0, 10));
+    }
+
+    @Test
+    public void testSplitAndMerge() throws InvalidProtocolBufferException {
+        List<Any> parts = BatchMessages.split(requests(10), 4);
+        List<Any> replies = new ArrayList<>();
+        for (Any part : parts) {
+            List<Message> responses = new ArrayList<>();
+            for (Message request : BatchMessages.unpackRequests(part)) {
+                long id = ((EvaluatorRequest) request).getSolutionId();
+                responses.add(EvaluatorResponse.newBuilder().setSolutionId(id).setQuality(id / 2.0).build());
+            }
+            replies.add(Any.pack(BatchMessages.packResponses(part, responses)));
+        }
+
+        Assert.assertEquals(BatchMessages.merge(replies), responses(0, 10));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeErrorPart() throws InvalidProtocolBufferException {
+        //  A worker that fails replies with Empty instead of a batch response
+        BatchMessages.merge(Arrays.asList(responses(0, 3), Any.pack(Empty.getDefaultInstance())));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testMergeErrorFirstPart() throws InvalidProtocolBufferException {
+        BatchMessages.merge(Arrays.asList(Any.pack(Empty.getDefaultInstance()), responses(0, 3)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeDifferentTypes() throws InvalidProtocolBufferException {
+        BatchMessages.merge(Arrays.asList(responses(0, 3), Any.pack(CrossoverBatchResponse.getDefaultInstance())));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeNothing() throws InvalidProtocolBufferException {
+        BatchMessages.merge(new ArrayList<>());
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testSplitNoBatch() throws InvalidProtocolBufferException {
+        BatchMessages.split(Any.pack(EvaluatorRequest.getDefaultInstance()), 2);
+    }
+}
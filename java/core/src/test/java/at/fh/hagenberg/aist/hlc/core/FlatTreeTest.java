@@ -0,0 +1,147 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.PackedTree;
+import at.fh.hagenberg.aist.hlc.core.messages.TreeNode;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FlatTreeTest {
+
+    /**
+     * @return tree (1 (2 (3) (4)) (5)) with the node IDs 10 to 14 in prefix order
+     */
+    static TreeNode tree() {
+        return node(10, 1,
+                node(11, 2, node(12, 3), node(13, 4)),
+                node(14, 5));
+    }
+
+    static TreeNode node(long id, long symbolId, TreeNode... children) {
+        TreeNode.Builder builder = TreeNode.newBuilder().setId(id).setSymbolId(symbolId);
+        for (TreeNode child : children) {
+            builder.addChildren(child);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param depth number of nodes
+     * @return a chain of nodes, deeper than the stack allows for recursion
+     */
+    static TreeNode deepTree(int depth) {
+        TreeNode tree = node(depth - 1, depth - 1);
+        for (int i = depth - 2; i >= 0; i--) {
+            tree = node(i, i, tree);
+        }
+        return tree;
+    }
+
+    @Test
+    public void testOfTreeNode() {
+        FlatTree tree = FlatTree.of(tree(), true);
+
+        Assert.assertEquals(tree.size(), 5);
+        Assert.assertTrue(tree.hasIds());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(tree.getSymbolId(i), i + 1);
+            Assert.assertEquals(tree.getId(i), i + 10);
+        }
+        Assert.assertEquals(tree.getArity(0), 2);
+        Assert.assertEquals(tree.getArity(1), 2);
+        Assert.assertEquals(tree.getArity(2), 0);
+        Assert.assertEquals(tree.getArity(3), 0);
+        Assert.assertEquals(tree.getArity(4), 0);
+    }
+
+    @Test
+    public void testTreeNodeRoundTrip() {
+        Assert.assertEquals(FlatTree.of(tree(), true).toTreeNode(), tree());
+    }
+
+    @Test
+    public void testTreeNodeRoundTripWithoutIds() {
+        FlatTree tree = FlatTree.of(tree(), false);
+
+        Assert.assertFalse(tree.hasIds());
+        TreeNode expected = node(0, 1, node(0, 2, node(0, 3), node(0, 4)), node(0, 5));
+        Assert.assertEquals(tree.toTreeNode(), expected);
+    }
+
+    @Test
+    public void testPackedTreeRoundTrip() {
+        PackedTree packed = FlatTree.of(tree(), true).toPackedTree();
+
+        Assert.assertEquals(packed.getSymbolIdsCount(), 5);
+        Assert.assertEquals(packed.getIdsCount(), 5);
+        Assert.assertEquals(FlatTree.of(packed).toPackedTree(), packed);
+        Assert.assertEquals(FlatTree.of(packed).toTreeNode(), tree());
+    }
+
+    @Test
+    public void testPackedTreeWithoutIds() {
+        PackedTree packed = FlatTree.of(tree(), false).toPackedTree();
+
+        Assert.assertEquals(packed.getIdsCount(), 0);
+        Assert.assertFalse(FlatTree.of(packed).hasIds());
+    }
+
+    @Test
+    public void testIdsOnlyIfSet() {
+        Assert.assertTrue(FlatTree.of(tree()).hasIds());
+        Assert.assertFalse(FlatTree.of(FlatTree.of(tree(), false).toTreeNode()).hasIds());
+        Assert.assertTrue(FlatTree.of(node(0, 1, node(3, 2))).hasIds());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPackedTreeMissingArities() {
+        FlatTree.of(PackedTree.newBuilder().addSymbolIds(1).addSymbolIds(2).addArities(1).build());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPackedTreeMissingIds() {
+        FlatTree.of(FlatTree.of(tree(), false).toPackedTree().toBuilder().addIds(10).build());
+    }
+
+    @Test
+    public void testSingleNode() {
+        TreeNode leaf = node(7, 42);
+
+        Assert.assertEquals(FlatTree.of(leaf, true).size(), 1);
+        Assert.assertEquals(FlatTree.of(FlatTree.of(leaf, true).toPackedTree()).toTreeNode(), leaf);
+    }
+
+    @Test
+    public void testDeepTree() {
+        TreeNode deep = deepTree(100000);
+        FlatTree tree = FlatTree.of(deep, true);
+
+        Assert.assertEquals(tree.size(), 100000);
+        Assert.assertEquals(FlatTree.of(tree.toPackedTree()).getSymbolId(99999), 99999);
+        Assert.assertEquals(tree.subtreeEnd(0), 100000);
+    }
+
+    @Test
+    public void testSubtreeEnd() {
+        FlatTree tree = FlatTree.of(tree(), false);
+
+        Assert.assertEquals(tree.subtreeEnd(0), 5);
+        Assert.assertEquals(tree.subtreeEnd(1), 4);
+        Assert.assertEquals(tree.subtreeEnd(2), 3);
+        Assert.assertEquals(tree.subtreeEnd(4), 5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDifferentLengths() {
+        new FlatTree(new long[]{1, 2}, new int[]{1}, null);
+    }
+}
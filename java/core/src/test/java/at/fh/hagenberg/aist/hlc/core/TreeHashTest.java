@@ -0,0 +1,74 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.PackedTree;
+import at.fh.hagenberg.aist.hlc.core.messages.TreeNode;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import static at.fh.hagenberg.aist.hlc.core.FlatTreeTest.node;
+import static at.fh.hagenberg.aist.hlc.core.FlatTreeTest.tree;
+
+public class TreeHashTest {
+
+    @Test
+    public void testSameHashForAllForms() {
+        TreeNode tree = tree();
+        FlatTree flat = FlatTree.of(tree, true);
+        PackedTree packed = flat.toPackedTree();
+
+        TreeHash.Key key = TreeHash.key(tree);
+        Assert.assertEquals(TreeHash.key(flat), key);
+        Assert.assertEquals(TreeHash.key(packed), key);
+    }
+
+    @Test
+    public void testIdsAreIgnored() {
+        TreeNode withoutIds = node(0, 1, node(0, 2, node(0, 3), node(0, 4)), node(0, 5));
+
+        Assert.assertEquals(TreeHash.key(withoutIds), TreeHash.key(tree()));
+    }
+
+    @Test
+    public void testShapeMatters() {
+        //  Same symbols in prefix order: (1 (2 (3) (4)) (5)) and (1 (2 (3) (4) (5)))
+        TreeNode other = node(0, 1, node(0, 2, node(0, 3), node(0, 4), node(0, 5)));
+
+        Assert.assertNotEquals(TreeHash.key(other).getHash(), TreeHash.key(tree()).getHash());
+        Assert.assertNotEquals(TreeHash.key(other), TreeHash.key(tree()));
+    }
+
+    @Test
+    public void testSymbolsMatter() {
+        TreeNode other = node(0, 1, node(0, 2, node(0, 4), node(0, 3)), node(0, 5));
+
+        Assert.assertNotEquals(TreeHash.key(other).getHash(), TreeHash.key(tree()).getHash());
+        Assert.assertNotEquals(TreeHash.key(other).getChecksum(), TreeHash.key(tree()).getChecksum());
+    }
+
+    @Test
+    public void testKeyNeedsBothHashes() {
+        TreeHash.Key key = new TreeHash.Key(1, 2);
+
+        Assert.assertEquals(key, new TreeHash.Key(1, 2));
+        Assert.assertEquals(key.hashCode(), new TreeHash.Key(1, 2).hashCode());
+        Assert.assertNotEquals(key, new TreeHash.Key(1, 3));
+        Assert.assertNotEquals(key, new TreeHash.Key(3, 2));
+    }
+
+    @Test
+    public void testDeepTree() {
+        TreeNode deep = FlatTreeTest.deepTree(100000);
+
+        Assert.assertEquals(TreeHash.key(FlatTree.of(deep, false).toPackedTree()), TreeHash.key(deep));
+    }
+}
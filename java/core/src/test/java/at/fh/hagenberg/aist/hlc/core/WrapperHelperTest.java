@@ -0,0 +1,62 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.core;
+
+import at.fh.hagenberg.aist.hlc.core.messages.EvaluatorResponse;
+import at.fh.hagenberg.aist.hlc.core.messages.Wrapper;
+import com.google.protobuf.Any;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class WrapperHelperTest {
+
+    private static String typeUrl(byte[] wrapper) {
+        long typeUrl = WrapperHelper.findTypeUrl(wrapper);
+        return typeUrl < 0 ? null : new String(wrapper, (int) (typeUrl >>> 32), (int) typeUrl, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFindTypeUrl() {
+        Any message = Any.pack(EvaluatorResponse.newBuilder().setSolutionId(3).setQuality(0.5).build());
+        byte[] wrapper = Wrapper.newBuilder().setMessage(message).setRequestId(Long.MAX_VALUE).build().toByteArray();
+
+        Assert.assertEquals(typeUrl(wrapper), message.getTypeUrl());
+    }
+
+    @Test
+    public void testFindTypeUrlWithoutMessage() {
+        Assert.assertNull(typeUrl(Wrapper.newBuilder().setRequestId(42).build().toByteArray()));
+        Assert.assertNull(typeUrl(new byte[0]));
+    }
+
+    @Test
+    public void testFindTypeUrlInvalid() {
+        byte[] wrapper = Wrapper.newBuilder().setMessage(Any.pack(EvaluatorResponse.getDefaultInstance())).build().toByteArray();
+
+        Assert.assertNull(typeUrl(new byte[]{(byte) 0xFF, (byte) 0xFF}));
+        Assert.assertNull(typeUrl(Arrays.copyOf(wrapper, wrapper.length - 3)));
+    }
+
+    @Test
+    public void testStatisticsByTypeUrl() {
+        MessageStatistics statistics = new MessageStatistics();
+        byte[] wrapper = Wrapper.newBuilder().setMessage(Any.pack(EvaluatorResponse.getDefaultInstance())).build().toByteArray();
+        long typeUrl = WrapperHelper.findTypeUrl(wrapper);
+
+        MessageStatistics.Type type = statistics.get(wrapper, (int) (typeUrl >>> 32), (int) typeUrl);
+        Assert.assertSame(statistics.get(wrapper.clone(), (int) (typeUrl >>> 32), (int) typeUrl), type);
+        type.sent(wrapper.length);
+        Assert.assertEquals(statistics.getBytesOut().get("EvaluatorResponse"), Long.valueOf(wrapper.length));
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import at.fh.hagenberg.aist.hlc.core.BatchMessages;
+import at.fh.hagenberg.aist.hlc.core.messages.Wrapper;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A request of a client that was split across several workers: either a batch request split into parts,
+ * or a request all workers bound to an algorithm run must get (StopAlgorithmRequest).
+ * The parts are sent to the workers with a token instead of the client address,
+ * the replies are collected and merged into a single reply to the client.
+ * If a part of a batch fails or the split expires, the client gets an error reply (Empty, like from a failing worker).
+ */
+public class BatchSplit {
+
+    /**
+     * Prefix of the token frames that replace the client address in the parts of the split.
+     */
+    public static final String TOKEN_PREFIX = "hlc-batch:";
+
+    private final long id;
+    private final ZMsg envelope; //  Client address and delimiter
+    private final Any[] replies;
+    private final String[] workers; //  Identity of the worker of each part
+    private final long requestId;
+    private final boolean batch;
+    private int remaining;
+    private final long expiry;
+
+    /**
+     * @param id        ID of the split
+     * @param envelope  client address and delimiter
+     * @param parts     number of parts
+     * @param requestId request ID of the client request, copied to the reply
+     * @param batch     true if a batch request was split, false if the same request was sent to all parts
+     * @param expiry    time until all parts must be replied
+     */
+    protected BatchSplit(long id, ZMsg envelope, int parts, long requestId, boolean batch, long expiry) {
+        this.id = id;
+        this.envelope = envelope;
+        this.replies = new Any[parts];
+        this.workers = new String[parts];
+        this.requestId = requestId;
+        this.batch = batch;
+        this.remaining = parts;
+        this.expiry = expiry;
+    }
+
+    /**
+     * @param part index of the part
+     * @return frame that identifies the part instead of the client address
+     */
+    public ZFrame getToken(int part) {
+        return new ZFrame(TOKEN_PREFIX + id + ":" + part);
+    }
+
+    /**
+     * @param frame first frame of a reply
+     * @return true if the frame is a token of a split batch
+     */
+    public static boolean isToken(ZFrame frame) {
+        return new String(frame.getData(), ZMQ.CHARSET).startsWith(TOKEN_PREFIX);
+    }
+
+    /**
+     * @param frame token frame
+     * @return ID of the split the token belongs to
+     */
+    public static long getId(ZFrame frame) {
+        String token = new String(frame.getData(), ZMQ.CHARSET);
+        return Long.parseLong(token.substring(TOKEN_PREFIX.length(), token.lastIndexOf(':')));
+    }
+
+    /**
+     * @param frame token frame
+     * @return index of the part the token belongs to
+     */
+    public static int getPart(ZFrame frame) {
+        String token = new String(frame.getData(), ZMQ.CHARSET);
+        return Integer.parseInt(token.substring(token.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * Records the worker a part is sent to.
+     *
+     * @param part     index of the part
+     * @param identity identity of the worker
+     */
+    public void assign(int part, String identity) {
+        workers[part] = identity;
+    }
+
+    /**
+     * @param identity identity of a worker
+     * @return indices of the parts assigned to the worker that have not been replied yet
+     */
+    public List<Integer> getOpenParts(String identity) {
+        List<Integer> parts = new ArrayList<>();
+        for (int i = 0; i < workers.length; i++) {
+            if (replies[i] == null && identity.equals(workers[i])) {
+                parts.add(i);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Stores the reply of a part.
+     *
+     * @param part  index of the part
+     * @param reply reply of the worker, Empty if the part failed
+     * @return true if all parts have been replied
+     */
+    public boolean complete(int part, Any reply) {
+        if (replies[part] == null) {
+            replies[part] = reply;
+            remaining--;
+        }
+        return remaining == 0;
+    }
+
+    /**
+     * @return true if no batch was split or all parts were replied with batch responses
+     */
+    public boolean succeeded() {
+        if (!batch) {
+            return true;
+        }
+        for (Any reply : replies) {
+            if (reply == null || !BatchMessages.isBatchResponse(reply)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges the replies of all parts. If no batch was split, the first reply is returned.
+     *
+     * @return message to the client with the merged batch response, or an error reply if a part failed
+     */
+    public ZMsg merge() {
+        if (!batch) {
+            return reply(replies[0]);
+        }
+        if (!succeeded()) {
+            return error();
+        }
+        try {
+            return reply(BatchMessages.merge(Arrays.asList(replies)));
+        } catch (InvalidProtocolBufferException | IllegalArgumentException e) {
+            return error();
+        }
+    }
+
+    /**
+     * @return message to the client that the request failed
+     */
+    public ZMsg error() {
+        return reply(Any.pack(Empty.getDefaultInstance()));
+    }
+
+    private ZMsg reply(Any reply) {
+        Wrapper wrapper = Wrapper.newBuilder().setMessage(reply).setRequestId(requestId).build();
+        ZMsg msg = envelope.duplicate();
+        msg.add(wrapper.toByteArray());
+        return msg;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getExpiry() {
+        return expiry;
+    }
+
+    public void destroy() {
+        envelope.destroy();
+    }
+}
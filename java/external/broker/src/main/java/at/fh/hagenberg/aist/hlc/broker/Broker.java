@@ -11,9 +11,17 @@
 
 package at.fh.hagenberg.aist.hlc.broker;
 
+import at.fh.hagenberg.aist.hlc.core.BatchMessages;
 import at.fh.hagenberg.aist.hlc.core.ParanoidPirateProtocolConstants;
+import at.fh.hagenberg.aist.hlc.core.WrapperHelper;
+import at.fh.hagenberg.aist.hlc.core.messages.StartAlgorithmRequest;
+import at.fh.hagenberg.aist.hlc.core.messages.StartAlgorithmResponse;
+import at.fh.hagenberg.aist.hlc.core.messages.StopAlgorithmRequest;
 import at.fh.hagenberg.aist.hlc.core.messages.WorkerConfiguration;
+import at.fh.hagenberg.aist.hlc.core.messages.Wrapper;
 import at.fh.hagenberg.aist.seshat.Logger;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.zeromq.ZContext;
@@ -23,9 +31,19 @@ import org.zeromq.ZMQ.Poller;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -38,8 +56,33 @@ public class Broker {
     private int heartbeatLiveness;
     private String frontend;
     private String backend;
+    private int minBatchChunkSize = 1;
+    private int batchTimeout = 3000;
+    private int backlogCapacity = 10000;
+    private int backlogTimeout = 3000;
+    private int workersPerRun = 2;
     private Logger logger;
 
+    private Socket frontendSocket;
+    private Socket backendSocket;
+
+    //  Queue of available workers
+    private WorkerQueue queue;
+    //  All workers registered to the broker, by identity
+    private Map<String, Worker> registeredWorkers;
+    //  Algorithm runs with their language and bound workers
+    private RunAffinity affinity;
+    //  Requests waiting for a worker
+    private RequestBacklog backlog;
+
+    //  Batch requests that were split across several workers, by split ID
+    private Map<Long, BatchSplit> pendingSplits = new HashMap<>();
+    private long nextSplitId = 0;
+    //  Parts of splits that wait for a credit of their worker, by worker identity
+    private Map<String, Deque<ZMsg>> waitingParts = new HashMap<>();
+
+    private BrokerMetrics metrics = new BrokerMetrics();
+
     public static void main(String[] args) {
         ClassPathXmlApplicationContext configCtx = new ClassPathXmlApplicationContext("config.xml");
         Broker broker = configCtx.getBean("broker", Broker.class);
@@ -47,22 +90,22 @@ public class Broker {
     }
 
     /**
-     * The main task is an LRU queue with heartbeating on workers so we can detect crashed or blocked worker tasks
+     * The main task is an LRU queue with heartbeating on workers so we can detect crashed or blocked worker tasks.
+     * Each worker gets up to as many requests in flight as it advertised in its configuration (credit-based dispatch).
+     * Requests that can not be routed immediately wait in a bounded backlog until a worker becomes ready.
      */
     public void broker() {
+        ObjectName metricsName = registerMetrics();
         try (ZContext ctx = new ZContext()) {
-            Socket frontendSocket = ctx.createSocket(ZMQ.ROUTER);
-            Socket backendSocket = ctx.createSocket(ZMQ.ROUTER);
+            frontendSocket = ctx.createSocket(ZMQ.ROUTER);
+            backendSocket = ctx.createSocket(ZMQ.ROUTER);
             frontendSocket.bind(frontend); //  For clients
             backendSocket.bind(backend); //  For workers
 
-            //  Queue of available workers
-            WorkerQueue queue = new WorkerQueue();
-
-            //  All workers registered to the broker
-            Map<byte[], Worker> registeredWorkers = new HashMap<>();
-            //  Run ID to language
-            Map<String, Long> requiredLanguages = new HashMap<>();
+            queue = new WorkerQueue();
+            registeredWorkers = new HashMap<>();
+            affinity = new RunAffinity(workersPerRun);
+            backlog = new RequestBacklog(backlogCapacity);
 
             //  Send out heartbeats at regular intervals
             long heartbeatAt = System.currentTimeMillis() + heartbeatInterval;
@@ -72,7 +115,6 @@ public class Broker {
             poller.register(frontendSocket, Poller.POLLIN);
 
             while (true) {
-                boolean workersAvailable = queue.size() > 0;
                 int rc = poller.poll(heartbeatInterval);
                 if (rc == -1) {
                     logger.error("poller not ready");
@@ -90,116 +132,598 @@ public class Broker {
 
                     //  Any sign of life from worker means it's ready
                     ZFrame address = msg.unwrap();
-                    byte[] id = address.getData();
+                    Worker worker = registeredWorkers.get(Worker.getIdentity(address.getData()));
 
                     //  Validate control message, or return reply to client
-                    if (msg.size() == 1) { // signal
+                    if (msg.size() < 3) { // signal
                         ZFrame frame = msg.getFirst();
                         String data = new String(frame.getData(), ZMQ.CHARSET);
 
-                        if (data.equals(ParanoidPirateProtocolConstants.PPP_READY)) {
+                        if (data.equals(ParanoidPirateProtocolConstants.PPP_READY) && msg.size() == 2) {
                             //  Read configuration of worker (not part of PPP)
-                            ZMsg configMsg = ZMsg.recvMsg(backendSocket);
-                            configMsg.pop();
-                            ZFrame configFrame = configMsg.pop();
-                            WorkerConfiguration config = WorkerConfiguration.parseFrom(configFrame.getData());
-                            Worker worker = new Worker(address, config.getSupportedLanguagesList(),
-                                    config.getIsConfigWorker(), heartbeatInterval, heartbeatLiveness);
-                            registeredWorkers.put(id, worker);
+                            WorkerConfiguration config = WorkerConfiguration.parseFrom(msg.getLast().getData());
+                            worker = new Worker(address, config.getSupportedLanguagesList(), config.getIsConfigWorker(),
+                                    config.getConcurrency(), heartbeatInterval, heartbeatLiveness);
+                            registeredWorkers.put(worker.getIdentity(), worker);
                             logger.info("registered a new worker: " + worker);
-                            configMsg.destroy();
                         } else if (data.equals(ParanoidPirateProtocolConstants.PPP_HEARTBEAT)) {
-                            if (registeredWorkers.containsKey(id)) {
-                                registeredWorkers.get(id).resetExpiry();
-                            } else {
+                            if (worker == null) {
                                 logger.error("received heartbeat from unregistered worker");
-                                id = null;
                             }
                         } else {
                             logger.error("invalid message from worker: " + msg);
-                            id = null;
+                            worker = null;
                         }
 
                         msg.destroy();
                     } else {
-                        logger.info("forward message to frontend");
-                        msg.send(frontendSocket);
+                        //  The worker replied, so it can take another request
+                        if (worker != null) {
+                            worker.release();
+                            metrics.replyReceived(worker.getIdentity(), msg.getLast().size());
+                        }
+
+                        if (BatchSplit.isToken(msg.getFirst())) {
+                            mergeBatch(msg);
+                        } else if (RunAffinity.isReplayToken(msg.getFirst())) {
+                            checkReplay(msg, worker);
+                        } else {
+                            forward(msg);
+                        }
                     }
 
-                    if (id != null) {
-                        queue.push(registeredWorkers.get(id));
+                    if (worker != null) {
+                        worker.resetExpiry();
+                        queue.push(worker);
+                        sendWaitingParts(worker);
+                        drainBacklog(worker);
                     }
                 }
 
                 //  Now get next client request, route to next worker
                 if (poller.pollin(1)) {
-                    // consume the msg even if we don't have a worker to handle it to avoid an endless loop
                     ZMsg msg = ZMsg.recvMsg(frontendSocket);
                     if (msg == null) {
                         logger.error("message was null");
                         break; //  Interrupted
                     }
 
-                    if (!workersAvailable) {
-                        logger.error("no workers available to handle request");
-                        continue;
-                    }
-
-                    if (msg.size() >= 4) { // frames: ZMQ ID, empty, algorithm run ID, [language ID], message
-                        Object[] frames = msg.toArray();
-                        String id = frames[2].toString();
-
-                        //  First message must include required worker configuration before actual message
-                        if (!requiredLanguages.containsKey(id)) {
-                            long lang = Long.parseLong(frames[3].toString());
-                            requiredLanguages.put(id, lang);
-                            msg.remove(frames[3]);
-                        }
-
-                        long lang = requiredLanguages.get(id);
-
-                        try {
-                            msg.push(queue.pop(lang));
-                            logger.info("forward message to worker");
-                            msg.send(backendSocket);
-                        } catch (IllegalStateException e) {
-                            logger.error(e.getMessage());
-                        }
-                    } else { // frames: ZMQ ID, empty, message
-                        try {
-                            msg.push(queue.pop(true));
-                            logger.info("forward message to worker");
-                            msg.send(backendSocket);
-                        } catch (IllegalStateException e) {
-                            logger.error(e.getMessage());
+                    PendingRequest request = createRequest(msg);
+                    if (request == null) {
+                        metrics.requestDropped();
+                        msg.destroy();
+                    } else {
+                        metrics.requestReceived(request.getTypeName(), msg.getLast().size());
+                        if (!dispatch(request) && !backlog.offer(request)) {
+                            logger.error("no workers available and backlog full, dropping request");
+                            metrics.requestDropped();
+                            msg.destroy();
                         }
                     }
                 }
 
                 //  We handle heartbeating after any socket activity. First we
-                //  send heartbeats to any idle workers if it's time. Then we
-                //  purge any dead workers
+                //  send heartbeats to all workers if it's time (busy workers
+                //  keep heartbeating while they process requests concurrently).
+                //  Then we purge any dead workers and expired requests
                 if (System.currentTimeMillis() >= heartbeatAt) {
-                    for (Worker worker : queue) {
+                    for (Worker worker : registeredWorkers.values()) {
                         worker.getAddress().send(backendSocket, ZFrame.REUSE + ZFrame.MORE);
                         ZFrame frame = new ZFrame(ParanoidPirateProtocolConstants.PPP_HEARTBEAT);
                         frame.send(backendSocket, 0);
                     }
                     heartbeatAt += heartbeatInterval;
-                }
 
-                logger.info("purge inactive workers");
-                List<Worker> purgedWorkers = queue.purge();
-                if (!purgedWorkers.isEmpty()) {
-                    logger.info(String.format("purged worker(s): " +
-                            purgedWorkers.stream().map(Worker::toString).collect(Collectors.joining(", "))));
+                    purgeWorkers();
+                    expireRequests();
+                    expireBatches();
+                    sampleMetrics();
                 }
             }
 
             //  When we're done, clean up properly
             queue.clear();
+            backlog.clear();
         } catch (InvalidProtocolBufferException ex) {
             logger.error(ex);
+        } finally {
+            unregisterMetrics(metricsName);
+        }
+    }
+
+    /**
+     * Registers the metrics of the broker as MXBean, see {@link BrokerMetricsMXBean}.
+     *
+     * @return The name of the MXBean, or null if it could not be registered.
+     */
+    private ObjectName registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("at.fh.hagenberg.aist.hlc:type=Broker,name=" + ObjectName.quote(frontend));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            logger.warn("could not register metrics: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void unregisterMetrics(ObjectName name) {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                logger.warn("could not unregister metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Updates the gauges of the metrics, called once per heartbeat interval.
+     */
+    private void sampleMetrics() {
+        long now = System.nanoTime();
+        int inFlight = 0;
+        Map<String, Double> utilisation = new HashMap<>();
+        for (Worker worker : registeredWorkers.values()) {
+            inFlight += worker.getInFlight();
+            utilisation.put(worker.getIdentity(), worker.sampleUtilisation(now));
+        }
+        metrics.sample(registeredWorkers.size(), queue.size(), inFlight, backlog.size(), affinity.size(),
+                pendingSplits.size(), utilisation);
+    }
+
+    /**
+     * Forwards a reply to the client.
+     *
+     * @param msg: Reply (frames: ZMQ ID, empty, message).
+     */
+    private void forward(ZMsg msg) {
+        metrics.replyForwarded(msg.getLast().getData());
+        msg.send(frontendSocket);
+    }
+
+    /**
+     * Reads the routing information of a client request.
+     * The first message of an algorithm run must include the language ID, it is removed from the message.
+     *
+     * @param msg: Request of the client (frames: ZMQ ID, empty, [algorithm run ID, [language ID]], message).
+     * @return The request to route, or null if the request is invalid.
+     */
+    private PendingRequest createRequest(ZMsg msg) {
+        long now = System.currentTimeMillis();
+        String type = "";
+        try {
+            type = WrapperHelper.getTypeName(msg.getLast().getData());
+        } catch (InvalidProtocolBufferException e) {
+            logger.error("invalid message from client: " + e.getMessage());
+        }
+
+        if (msg.size() < 4) { // frames: ZMQ ID, empty, message
+            return new PendingRequest(msg, type, null, 0, now, now + backlogTimeout);
+        }
+
+        // frames: ZMQ ID, empty, algorithm run ID, [language ID], message
+        Object[] frames = msg.toArray();
+        String id = frames[2].toString();
+
+        //  First message must include required worker configuration before actual message
+        if (affinity.get(id) == null) {
+            try {
+                affinity.create(id, Long.parseLong(frames[3].toString()));
+            } catch (NumberFormatException e) {
+                logger.error("first message of algorithm run " + id + " does not contain a language ID");
+                return null;
+            }
+            msg.remove(frames[3]);
+        } else if (frames.length > 4) {
+            //  First message resent by a client after a timeout
+            msg.remove(frames[3]);
+        }
+
+        return new PendingRequest(msg, type, id, affinity.get(id).getLanguage(), now, now + backlogTimeout);
+    }
+
+    /**
+     * Sends a request to the least recently used worker able to handle it.
+     * Requests of algorithm runs are sent to the workers bound to the run, see {@link RunAffinity},
+     * the run must not have been stopped (see {@link #createRequest} and {@link #drainBacklog}).
+     *
+     * @param request: The request to send.
+     * @return false if no worker is available to handle the request.
+     */
+    private boolean dispatch(PendingRequest request) {
+        ZMsg msg = request.getMsg();
+        if (request.isConfigRequest()) {
+            if (queue.countConfigWorkers() == 0) {
+                return false;
+            }
+            msg.push(queue.pop(true));
+            msg.send(backendSocket);
+            return true;
+        }
+
+        String algorithmRunId = request.getAlgorithmRunId();
+        RunAffinity.Binding binding = affinity.get(algorithmRunId);
+
+        String type = request.getTypeName();
+
+        //  All workers bound to the run hold state of it, so all of them must be stopped.
+        //  Each one gets the request as soon as it has a credit, so no other request waits for the busiest worker.
+        if (WrapperHelper.is(type, StopAlgorithmRequest.getDefaultInstance())) {
+            byte[] stop = msg.getLast().getData();
+            long requestId;
+            try {
+                requestId = WrapperHelper.getRequestId(stop);
+            } catch (InvalidProtocolBufferException e) {
+                requestId = 0;
+            }
+            if (binding.getWorkers().isEmpty()) {
+                //  No worker holds state of the run, so there is nothing to stop
+                reply(msg, requestId, Any.pack(Empty.getDefaultInstance()));
+            } else {
+                List<Worker> workers = new ArrayList<>(binding.getWorkers());
+                sendSplit(msg, Collections.nCopies(workers.size(), stop), requestId, false, workers);
+            }
+            affinity.release(algorithmRunId);
+            return true;
+        }
+
+        boolean isStart = WrapperHelper.is(type, StartAlgorithmRequest.getDefaultInstance());
+        if (isStart) {
+            binding.setStartRequest(msg.getLast().getData().clone());
+        }
+
+        Wrapper batch = null;
+        int max = 1;
+        if (BatchMessages.isBatchRequest(type)) {
+            try {
+                batch = Wrapper.parseFrom(msg.getLast().getData());
+                max = Math.max(1, BatchMessages.count(batch.getMessage()) / minBatchChunkSize);
+            } catch (InvalidProtocolBufferException e) {
+                logger.error("invalid batch from client: " + e.getMessage());
+            }
+        }
+
+        List<Worker> workers = selectWorkers(algorithmRunId, binding, max, !isStart);
+        if (workers.isEmpty()) {
+            return false;
+        }
+
+        if (workers.size() > 1) {
+            splitBatch(msg, batch, workers);
+        } else {
+            msg.push(queue.pop(workers.get(0)));
+            msg.send(backendSocket);
+        }
+        return true;
+    }
+
+    /**
+     * Replies to a request of a client without sending it to a worker.
+     *
+     * @param msg:       Request of the client (frames: ZMQ ID, empty, algorithm run ID, message).
+     * @param requestId: Request ID of the client request.
+     * @param reply:     The reply.
+     */
+    private void reply(ZMsg msg, long requestId, Any reply) {
+        Iterator<ZFrame> frames = msg.iterator();
+        ZMsg response = new ZMsg();
+        response.add(frames.next().duplicate()); // ZMQ ID
+        response.add(frames.next().duplicate()); // empty
+        response.add(Wrapper.newBuilder().setMessage(reply).setRequestId(requestId).build().toByteArray());
+        msg.destroy();
+        forward(response);
+    }
+
+    /**
+     * Selects available workers for the parts of a request of an algorithm run. Workers bound to the run are preferred,
+     * further workers are bound to the run as long as the free credits do not suffice and it has less than
+     * workersPerRun workers. The parts are spread round-robin, so a worker gets up to one part per free credit.
+     * A newly bound worker whose last credit is taken by the replayed start is bound but not selected.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param binding:        Binding of the algorithm run.
+     * @param max:            Maximum number of parts.
+     * @param replayStart:    Whether newly bound workers must be configured for the run first.
+     * @return The worker of each part, empty if no worker is available for the run.
+     */
+    private List<Worker> selectWorkers(String algorithmRunId, RunAffinity.Binding binding, int max, boolean replayStart) {
+        List<Worker> candidates = new ArrayList<>();
+        int credits = 0;
+        for (Worker worker : binding.getWorkers()) {
+            if (credits < max && queue.contains(worker)) {
+                candidates.add(worker);
+                credits += worker.getCredits();
+            }
+        }
+
+        while (credits < max && affinity.canBind(binding)) {
+            Worker worker = queue.peek(binding.getLanguage(), binding.getWorkers());
+            if (worker == null) {
+                break;
+            }
+
+            affinity.bind(algorithmRunId, worker);
+            if (replayStart && binding.getStartRequest() != null) {
+                replayStart(algorithmRunId, binding, worker);
+                if (!worker.hasCredit()) {
+                    continue;
+                }
+            }
+            candidates.add(worker);
+            credits += worker.getCredits();
+        }
+
+        List<Worker> workers = new ArrayList<>();
+        for (int round = 0; workers.size() < Math.min(max, credits); round++) {
+            for (Worker worker : candidates) {
+                if (workers.size() < max && worker.getCredits() > round) {
+                    workers.add(worker);
+                }
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Sends the StartAlgorithmRequest of an algorithm run to a newly bound worker, so it builds the state of the run
+     * before it gets other requests of the run. The reply is not forwarded to the client.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param binding:        Binding of the algorithm run.
+     * @param worker:         The newly bound worker.
+     */
+    private void replayStart(String algorithmRunId, RunAffinity.Binding binding, Worker worker) {
+        ZMsg msg = new ZMsg();
+        msg.add(queue.pop(worker));
+        msg.add(RunAffinity.REPLAY_TOKEN);
+        msg.add(new byte[0]);
+        msg.add(algorithmRunId);
+        msg.add(binding.getStartRequest());
+        logger.info("replay start of algorithm run " + algorithmRunId + " to worker " + worker.getIdentity());
+        msg.send(backendSocket);
+    }
+
+    /**
+     * Sends pending requests the worker can handle, as long as it can take further requests.
+     *
+     * @param worker: The worker that became ready.
+     */
+    private void drainBacklog(Worker worker) {
+        //  Requests that could not be dispatched, their runs are skipped so the requests of a run keep their order
+        List<PendingRequest> deferred = new ArrayList<>();
+        Set<String> deferredRuns = new HashSet<>();
+        while (backlog.size() > 0 && queue.size() > 0 && worker.hasCredit()) {
+            PendingRequest request = backlog.poll(r -> !deferredRuns.contains(r.getAlgorithmRunId()) &&
+                    r.canBeHandledBy(worker) && (r.isConfigRequest() || affinity.accepts(r.getAlgorithmRunId(), worker)));
+            if (request == null) {
+                break;
+            }
+            if (!request.isConfigRequest() && affinity.get(request.getAlgorithmRunId()) == null) {
+                logger.error("algorithm run " + request.getAlgorithmRunId() + " was already stopped, dropping request");
+                metrics.requestDropped();
+                request.getMsg().destroy();
+            } else if (dispatch(request)) {
+                metrics.backlogWait(System.currentTimeMillis() - request.getReceived());
+            } else {
+                //  E.g. the workers bound to the run are busy, the request waits until its deadline
+                deferred.add(request);
+                deferredRuns.add(request.getAlgorithmRunId());
+            }
+        }
+        deferred.forEach(backlog::requeue);
+    }
+
+    /**
+     * Sends the parts of splits that waited for a credit of the worker, before any request of the backlog.
+     *
+     * @param worker: The worker that became ready.
+     */
+    private void sendWaitingParts(Worker worker) {
+        Deque<ZMsg> parts = waitingParts.get(worker.getIdentity());
+        if (parts == null) {
+            return;
+        }
+        while (!parts.isEmpty() && worker.hasCredit()) {
+            ZMsg part = parts.poll();
+            part.push(queue.pop(worker));
+            part.send(backendSocket);
+        }
+        if (parts.isEmpty()) {
+            waitingParts.remove(worker.getIdentity());
+        }
+    }
+
+    /**
+     * Removes workers that did not show any sign of life in time.
+     */
+    private void purgeWorkers() {
+        long now = System.currentTimeMillis();
+        List<Worker> purgedWorkers = registeredWorkers.values().stream()
+                .filter(worker -> now >= worker.getExpiry())
+                .collect(Collectors.toList());
+        if (!purgedWorkers.isEmpty()) {
+            for (Worker worker : purgedWorkers) {
+                queue.remove(worker);
+                affinity.unbind(worker);
+                registeredWorkers.remove(worker.getIdentity());
+                failParts(worker);
+            }
+            metrics.workersPurged(purgedWorkers.size());
+            logger.info("purged worker(s): " +
+                    purgedWorkers.stream().map(Worker::toString).collect(Collectors.joining(", ")));
+        }
+    }
+
+    /**
+     * Completes the parts of splits a purged worker did not reply to, sent or still waiting for a credit,
+     * so the client gets its reply now instead of after the batch timeout. The worker lost the state of its runs,
+     * so a part that was going to stop a run counts as done, a part of a batch as failed.
+     *
+     * @param worker: The purged worker.
+     */
+    private void failParts(Worker worker) {
+        Deque<ZMsg> waiting = waitingParts.remove(worker.getIdentity());
+        if (waiting != null) {
+            waiting.forEach(ZMsg::destroy);
+        }
+        for (BatchSplit split : new ArrayList<>(pendingSplits.values())) {
+            for (int part : split.getOpenParts(worker.getIdentity())) {
+                completePart(split, part, Any.pack(Empty.getDefaultInstance()));
+            }
+        }
+    }
+
+    /**
+     * Drops pending requests that waited longer than the backlog timeout (the client will have given up on them).
+     */
+    private void expireRequests() {
+        List<PendingRequest> expired = backlog.expire(System.currentTimeMillis());
+        if (!expired.isEmpty()) {
+            expired.forEach(request -> request.getMsg().destroy());
+            metrics.requestsExpired(expired.size());
+            logger.warn("dropped " + expired.size() + " request(s) that waited too long for a worker");
+        }
+    }
+
+    /**
+     * Splits a batch request across several workers.
+     *
+     * @param msg:     Request of the client (frames: ZMQ ID, empty, algorithm run ID, message).
+     * @param batch:   The batch request.
+     * @param workers: Worker of each part, a worker with several free credits may get several parts.
+     */
+    private void splitBatch(ZMsg msg, Wrapper batch, List<Worker> workers) {
+        try {
+            List<byte[]> parts = BatchMessages.split(batch.getMessage(), workers.size()).stream()
+                    .map(part -> Wrapper.newBuilder().setMessage(part).setRequestId(batch.getRequestId()).build().toByteArray())
+                    .collect(Collectors.toList());
+            sendSplit(msg, parts, batch.getRequestId(), true, workers);
+        } catch (InvalidProtocolBufferException e) {
+            logger.error("invalid batch from client: " + e.getMessage());
+            msg.destroy();
+        }
+    }
+
+    /**
+     * Sends parts of a request to several workers. The parts are sent with a token instead of the client address,
+     * so the replies can be merged before they are forwarded to the client.
+     * A part for a worker without a free credit waits until the worker replies to another request.
+     *
+     * @param msg:     Request of the client (frames: ZMQ ID, empty, algorithm run ID, message).
+     * @param parts:     Serialized Wrapper of each part.
+     * @param requestId: Request ID of the client request.
+     * @param batch:     True if the parts are parts of a batch request, false if they are copies of the request.
+     * @param workers:   Worker of each part.
+     */
+    private void sendSplit(ZMsg msg, List<byte[]> parts, long requestId, boolean batch, List<Worker> workers) {
+        Iterator<ZFrame> frames = msg.iterator();
+        ZMsg envelope = new ZMsg();
+        envelope.add(frames.next().duplicate()); // ZMQ ID
+        envelope.add(frames.next().duplicate()); // empty
+        ZFrame algorithmRunId = frames.next();
+
+        BatchSplit split = new BatchSplit(nextSplitId++, envelope, parts.size(), requestId, batch,
+                System.currentTimeMillis() + batchTimeout);
+        pendingSplits.put(split.getId(), split);
+
+        for (int i = 0; i < parts.size(); i++) {
+            Worker worker = workers.get(i);
+            split.assign(i, worker.getIdentity());
+            ZMsg part = new ZMsg();
+            part.add(split.getToken(i));
+            part.add(new byte[0]);
+            part.add(algorithmRunId.duplicate());
+            part.add(parts.get(i));
+            if (worker.hasCredit()) {
+                part.push(queue.pop(worker));
+                part.send(backendSocket);
+            } else {
+                waitingParts.computeIfAbsent(worker.getIdentity(), w -> new ArrayDeque<>()).add(part);
+            }
+        }
+        msg.destroy();
+    }
+
+    /**
+     * Collects the reply to a part of a split batch and forwards the merged reply once all parts are done.
+     *
+     * @param msg: Reply of the worker (frames: token, empty, message).
+     */
+    private void mergeBatch(ZMsg msg) {
+        ZFrame token = msg.getFirst();
+        BatchSplit split = pendingSplits.get(BatchSplit.getId(token));
+        if (split == null) {
+            logger.warn("received reply to an unknown or expired batch");
+            msg.destroy();
+            return;
+        }
+
+        Any reply;
+        try {
+            reply = Wrapper.parseFrom(msg.getLast().getData()).getMessage();
+        } catch (InvalidProtocolBufferException e) {
+            logger.error("invalid reply to batch " + split.getId() + ": " + e.getMessage());
+            reply = Any.pack(Empty.getDefaultInstance());
+        }
+        int part = BatchSplit.getPart(token);
+        msg.destroy();
+        completePart(split, part, reply);
+    }
+
+    /**
+     * Stores the reply to a part of a split and forwards the merged reply once all parts are done.
+     *
+     * @param split: The split.
+     * @param part:  Index of the part.
+     * @param reply: Reply to the part, Empty if the part failed.
+     */
+    private void completePart(BatchSplit split, int part, Any reply) {
+        if (split.complete(part, reply)) {
+            pendingSplits.remove(split.getId());
+            if (!split.succeeded()) {
+                logger.error("batch " + split.getId() + " failed on a worker, sending error reply");
+            }
+            forward(split.merge());
+            split.destroy();
+        }
+    }
+
+    /**
+     * Checks the reply to a replayed StartAlgorithmRequest, it is not forwarded to the client.
+     *
+     * @param msg:    Reply of the worker (frames: token, empty, message).
+     * @param worker: The worker that replied.
+     */
+    private void checkReplay(ZMsg msg, Worker worker) {
+        try {
+            StartAlgorithmResponse response = Wrapper.parseFrom(msg.getLast().getData()).getMessage()
+                    .unpack(StartAlgorithmResponse.class);
+            if (!response.getSuccess()) {
+                logger.error("replayed start failed on worker " + (worker != null ? worker.getIdentity() : "?") +
+                        ": " + response.getErrorMessage());
+            }
+        } catch (InvalidProtocolBufferException e) {
+            logger.error("invalid reply to replayed start: " + e.getMessage());
+        } finally {
+            msg.destroy();
+        }
+    }
+
+    /**
+     * Replies with an error to split batches that were not completed in time (e.g. because a worker died).
+     */
+    private void expireBatches() {
+        long now = System.currentTimeMillis();
+        Iterator<BatchSplit> it = pendingSplits.values().iterator();
+        while (it.hasNext()) {
+            BatchSplit split = it.next();
+            if (now >= split.getExpiry()) {
+                logger.warn("batch " + split.getId() + " expired, sending error reply");
+                forward(split.error());
+                split.destroy();
+                it.remove();
+            }
         }
     }
 
@@ -235,6 +759,50 @@ public class Broker {
         this.heartbeatLiveness = heartbeatLiveness;
     }
 
+    public int getMinBatchChunkSize() {
+        return minBatchChunkSize;
+    }
+
+    public void setMinBatchChunkSize(int minBatchChunkSize) {
+        this.minBatchChunkSize = minBatchChunkSize;
+    }
+
+    public int getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    public void setBatchTimeout(int batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
+    public int getBacklogCapacity() {
+        return backlogCapacity;
+    }
+
+    public void setBacklogCapacity(int backlogCapacity) {
+        this.backlogCapacity = backlogCapacity;
+    }
+
+    public int getBacklogTimeout() {
+        return backlogTimeout;
+    }
+
+    public void setBacklogTimeout(int backlogTimeout) {
+        this.backlogTimeout = backlogTimeout;
+    }
+
+    public int getWorkersPerRun() {
+        return workersPerRun;
+    }
+
+    public void setWorkersPerRun(int workersPerRun) {
+        this.workersPerRun = workersPerRun;
+    }
+
+    public BrokerMetrics getMetrics() {
+        return metrics;
+    }
+
     public Logger getLogger() {
         return logger;
     }
@@ -0,0 +1,206 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import at.fh.hagenberg.aist.hlc.core.LatencyHistogram;
+import at.fh.hagenberg.aist.hlc.core.MessageStatistics;
+import at.fh.hagenberg.aist.hlc.core.WrapperHelper;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics collected by the broker thread and read via JMX. Recording does not allocate.
+ */
+public class BrokerMetrics implements BrokerMetricsMXBean {
+
+    private final MessageStatistics messages = new MessageStatistics();
+    private final LatencyHistogram backlogWait = new LatencyHistogram();
+    //  Bytes of the replies by worker identity
+    private final ConcurrentMap<String, AtomicLong> replyBytes = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestsReceived = new AtomicLong();
+    private final AtomicLong repliesForwarded = new AtomicLong();
+    private final AtomicLong requestsDropped = new AtomicLong();
+    private final AtomicLong requestsExpired = new AtomicLong();
+    private final AtomicLong purgedWorkers = new AtomicLong();
+
+    //  Gauges, sampled by the broker thread
+    private volatile int registeredWorkers;
+    private volatile int availableWorkers;
+    private volatile int requestsInFlight;
+    private volatile int backlogSize;
+    private volatile int algorithmRuns;
+    private volatile int pendingSplits;
+    private volatile Map<String, Double> workerUtilisation = Collections.emptyMap();
+
+    /**
+     * Records a request of a client.
+     * @param typeName: Full name of the message type.
+     * @param bytes:    Size of the message.
+     */
+    public void requestReceived(String typeName, int bytes) {
+        requestsReceived.incrementAndGet();
+        messages.get(typeName).received(bytes);
+    }
+
+    /**
+     * Records a reply of a worker.
+     * @param identity: Identity of the worker.
+     * @param bytes:    Size of the message.
+     */
+    public void replyReceived(String identity, int bytes) {
+        AtomicLong worker = replyBytes.get(identity);
+        if (worker == null) {
+            worker = replyBytes.computeIfAbsent(identity, w -> new AtomicLong());
+        }
+        worker.addAndGet(bytes);
+    }
+
+    /**
+     * Records a reply forwarded to a client, by the type of the contained message.
+     * @param wrapper: The serialized Wrapper.
+     */
+    public void replyForwarded(byte[] wrapper) {
+        repliesForwarded.incrementAndGet();
+        long typeUrl = WrapperHelper.findTypeUrl(wrapper);
+        MessageStatistics.Type type = typeUrl < 0 ? messages.get("") :
+                messages.get(wrapper, (int) (typeUrl >>> 32), (int) typeUrl);
+        type.sent(wrapper.length);
+    }
+
+    public void requestDropped() {
+        requestsDropped.incrementAndGet();
+    }
+
+    public void requestsExpired(int count) {
+        requestsExpired.addAndGet(count);
+    }
+
+    public void workersPurged(int count) {
+        purgedWorkers.addAndGet(count);
+    }
+
+    /**
+     * @param millis: Time a request waited in the backlog.
+     */
+    public void backlogWait(long millis) {
+        backlogWait.record(millis * 1000000L);
+    }
+
+    /**
+     * Updates the gauges.
+     */
+    public void sample(int registeredWorkers, int availableWorkers, int requestsInFlight, int backlogSize,
+                       int algorithmRuns, int pendingSplits, Map<String, Double> workerUtilisation) {
+        this.registeredWorkers = registeredWorkers;
+        this.availableWorkers = availableWorkers;
+        this.requestsInFlight = requestsInFlight;
+        this.backlogSize = backlogSize;
+        this.algorithmRuns = algorithmRuns;
+        this.pendingSplits = pendingSplits;
+        this.workerUtilisation = Collections.unmodifiableMap(workerUtilisation);
+        //  Forget purged workers
+        replyBytes.keySet().retainAll(workerUtilisation.keySet());
+    }
+
+    @Override
+    public int getRegisteredWorkers() {
+        return registeredWorkers;
+    }
+
+    @Override
+    public int getAvailableWorkers() {
+        return availableWorkers;
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+        return requestsInFlight;
+    }
+
+    @Override
+    public int getBacklogSize() {
+        return backlogSize;
+    }
+
+    @Override
+    public int getAlgorithmRuns() {
+        return algorithmRuns;
+    }
+
+    @Override
+    public int getPendingSplits() {
+        return pendingSplits;
+    }
+
+    @Override
+    public Map<String, Double> getWorkerUtilisation() {
+        return workerUtilisation;
+    }
+
+    @Override
+    public long getRequestsReceived() {
+        return requestsReceived.get();
+    }
+
+    @Override
+    public long getRepliesForwarded() {
+        return repliesForwarded.get();
+    }
+
+    @Override
+    public long getRequestsDropped() {
+        return requestsDropped.get();
+    }
+
+    @Override
+    public long getRequestsExpired() {
+        return requestsExpired.get();
+    }
+
+    @Override
+    public long getPurgedWorkers() {
+        return purgedWorkers.get();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getBacklogWait() {
+        return backlogWait.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        return messages.getCounts();
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+        return messages.getBytesIn();
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+        return messages.getBytesOut();
+    }
+
+    @Override
+    public Map<String, Long> getReplyBytes() {
+        Map<String, Long> bytes = new TreeMap<>();
+        replyBytes.forEach((identity, worker) -> bytes.put(identity, worker.get()));
+        return bytes;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import at.fh.hagenberg.aist.hlc.core.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * Metrics of the broker, exposed via JMX (at.fh.hagenberg.aist.hlc:type=Broker).
+ * Gauges are sampled once per heartbeat interval, counters are updated for every message.
+ */
+public interface BrokerMetricsMXBean {
+
+    /**
+     * @return number of workers registered to the broker
+     */
+    int getRegisteredWorkers();
+
+    /**
+     * @return number of workers that can take another request
+     */
+    int getAvailableWorkers();
+
+    /**
+     * @return number of requests sent to workers that were not replied yet
+     */
+    int getRequestsInFlight();
+
+    /**
+     * @return number of requests waiting for a worker
+     */
+    int getBacklogSize();
+
+    /**
+     * @return number of algorithm runs that were not stopped yet
+     */
+    int getAlgorithmRuns();
+
+    /**
+     * @return number of split batches waiting for replies
+     */
+    int getPendingSplits();
+
+    /**
+     * @return utilisation of the credits of each worker during the last heartbeat interval, by worker identity
+     */
+    Map<String, Double> getWorkerUtilisation();
+
+    long getRequestsReceived();
+
+    long getRepliesForwarded();
+
+    /**
+     * @return number of requests dropped because they were invalid or the backlog was full
+     */
+    long getRequestsDropped();
+
+    /**
+     * @return number of requests dropped because they waited too long in the backlog
+     */
+    long getRequestsExpired();
+
+    /**
+     * @return number of workers purged because they missed their heartbeats
+     */
+    long getPurgedWorkers();
+
+    /**
+     * @return time requests waited in the backlog until they were sent to a worker [usecs]
+     */
+    LatencyHistogram.Snapshot getBacklogWait();
+
+    /**
+     * @return number of requests received from clients by message type
+     */
+    Map<String, Long> getRequestCounts();
+
+    /**
+     * @return bytes received from clients by message type
+     */
+    Map<String, Long> getBytesIn();
+
+    /**
+     * @return bytes sent to clients by message type
+     */
+    Map<String, Long> getBytesOut();
+
+    /**
+     * @return bytes of the replies of each registered worker, by worker identity (see {@link #getWorkerUtilisation()})
+     */
+    Map<String, Long> getReplyBytes();
+}
@@ -0,0 +1,74 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import org.zeromq.ZMsg;
+
+/**
+ * Request of a client that is routed to a worker.
+ */
+public class PendingRequest {
+    private ZMsg msg;              //  Frames: ZMQ ID, empty, [algorithm run ID], message
+    private String typeName;       //  Full name of the message type, empty if the message is invalid
+    private String algorithmRunId; //  null for configuration requests
+    private long language;         //  Language the worker must support, unused for configuration requests
+    private long received;         //  Time the broker received the request
+    private long deadline;         //  Time after which the request is dropped if it is still pending
+
+    protected PendingRequest(ZMsg msg, String typeName, String algorithmRunId, long language, long received, long deadline) {
+        this.msg = msg;
+        this.typeName = typeName;
+        this.algorithmRunId = algorithmRunId;
+        this.language = language;
+        this.received = received;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true if the request must be handled by a config worker.
+     */
+    public boolean isConfigRequest() {
+        return algorithmRunId == null;
+    }
+
+    /**
+     * @param worker: Worker to check.
+     * @return true if the worker is able to handle the request.
+     */
+    public boolean canBeHandledBy(Worker worker) {
+        return isConfigRequest() ? worker.isConfigWorker() : worker.getSupportedLanguages().contains(language);
+    }
+
+    public ZMsg getMsg() {
+        return msg;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public String getAlgorithmRunId() {
+        return algorithmRunId;
+    }
+
+    public long getLanguage() {
+        return language;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+}
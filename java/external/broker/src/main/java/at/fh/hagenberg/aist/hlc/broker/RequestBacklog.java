@@ -0,0 +1,127 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Bounded backlog of requests that could not be routed to a worker yet.
+ * Requests are kept in FIFO order per algorithm run (configuration requests share one route),
+ * so draining the backlog only looks at the oldest request of each run.
+ */
+public class RequestBacklog {
+
+    /**
+     * Route of the configuration requests, which are not associated with an algorithm run.
+     */
+    private static final String CONFIG_ROUTE = "";
+
+    //  Pending requests by route, routes ordered by the time they became non-empty
+    private Map<String, ArrayDeque<PendingRequest>> routes = new LinkedHashMap<>();
+    private int size;
+    private int capacity;
+
+    public RequestBacklog(int capacity) {
+        this.capacity = capacity;
+    }
+
+    private static String getRoute(PendingRequest request) {
+        return request.isConfigRequest() ? CONFIG_ROUTE : request.getAlgorithmRunId();
+    }
+
+    /**
+     * Adds a request to the end of its route.
+     * @param request: The request to add.
+     * @return false if the backlog is full.
+     */
+    public boolean offer(PendingRequest request) {
+        if (size >= capacity) {
+            return false;
+        }
+        routes.computeIfAbsent(getRoute(request), r -> new ArrayDeque<>()).add(request);
+        size++;
+        return true;
+    }
+
+    /**
+     * Puts a request back to the head of its route, e.g. because it could not be dispatched after all.
+     * The capacity is not checked, as the request was taken from the backlog before.
+     * @param request: The request to put back.
+     */
+    public void requeue(PendingRequest request) {
+        routes.computeIfAbsent(getRoute(request), r -> new ArrayDeque<>()).addFirst(request);
+        size++;
+    }
+
+    /**
+     * Removes the oldest request of the first route whose oldest request is accepted.
+     * @param accept: Whether a request can be handled (e.g. by the worker that became ready).
+     * @return The request, or null if no request was accepted.
+     */
+    public PendingRequest poll(Predicate<PendingRequest> accept) {
+        Iterator<ArrayDeque<PendingRequest>> it = routes.values().iterator();
+        while (it.hasNext()) {
+            ArrayDeque<PendingRequest> requests = it.next();
+            if (accept.test(requests.peek())) {
+                PendingRequest request = requests.poll();
+                if (requests.isEmpty()) {
+                    it.remove();
+                }
+                size--;
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all requests whose deadline has passed.
+     * @param now: The current time.
+     * @return The removed requests.
+     */
+    public List<PendingRequest> expire(long now) {
+        List<PendingRequest> expired = new ArrayList<>();
+        Iterator<ArrayDeque<PendingRequest>> it = routes.values().iterator();
+        while (it.hasNext()) {
+            ArrayDeque<PendingRequest> requests = it.next();
+            //  Requests of a route are ordered by deadline, so we stop at the first one still pending
+            while (!requests.isEmpty() && requests.peek().getDeadline() <= now) {
+                expired.add(requests.poll());
+            }
+            if (requests.isEmpty()) {
+                it.remove();
+            }
+        }
+        size -= expired.size();
+        return expired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        routes.values().forEach(requests -> requests.forEach(request -> request.getMsg().destroy()));
+        routes.clear();
+        size = 0;
+    }
+}
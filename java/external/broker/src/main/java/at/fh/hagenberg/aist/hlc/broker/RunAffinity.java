@@ -0,0 +1,177 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.broker;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binds algorithm runs to a small set of workers, so the per-run state a worker builds in
+ * configure (parsed source, language context, test data) is reused by all requests of the run.
+ * A run is bound to further workers (up to workersPerRun) only while its bound workers are busy.
+ */
+public class RunAffinity {
+
+    /**
+     * Token that replaces the client address when the StartAlgorithmRequest of a run is replayed to a newly bound worker.
+     */
+    public static final String REPLAY_TOKEN = "hlc-replay";
+
+    private int workersPerRun;
+
+    //  Bindings by algorithm run ID
+    private Map<String, Binding> bindings = new HashMap<>();
+    //  Algorithm run IDs by identity of the bound worker
+    private Map<String, Set<String>> runsByWorker = new HashMap<>();
+
+    public RunAffinity(int workersPerRun) {
+        this.workersPerRun = Math.max(1, workersPerRun);
+    }
+
+    /**
+     * @param frame first frame of a reply
+     * @return true if the reply belongs to a replayed StartAlgorithmRequest
+     */
+    public static boolean isReplayToken(ZFrame frame) {
+        return REPLAY_TOKEN.equals(new String(frame.getData(), ZMQ.CHARSET));
+    }
+
+    /**
+     * Creates the binding of a new algorithm run.
+     *
+     * @param algorithmRunId ID of the algorithm run
+     * @param language       ID of the language the workers of the run must support
+     * @return the binding
+     */
+    public Binding create(String algorithmRunId, long language) {
+        Binding binding = new Binding(language);
+        bindings.put(algorithmRunId, binding);
+        return binding;
+    }
+
+    /**
+     * @param algorithmRunId ID of the algorithm run
+     * @return the binding of the run, or null if the run is unknown
+     */
+    public Binding get(String algorithmRunId) {
+        return bindings.get(algorithmRunId);
+    }
+
+    /**
+     * @param algorithmRunId ID of the algorithm run
+     * @param worker         worker to check
+     * @return true if requests of the run may be sent to the worker (it is bound, or the run can be bound to another worker)
+     */
+    public boolean accepts(String algorithmRunId, Worker worker) {
+        Binding binding = bindings.get(algorithmRunId);
+        return binding == null || binding.workers.contains(worker) || binding.workers.size() < workersPerRun;
+    }
+
+    /**
+     * @param binding binding of an algorithm run
+     * @return true if the run can be bound to another worker
+     */
+    public boolean canBind(Binding binding) {
+        return binding.workers.size() < workersPerRun;
+    }
+
+    /**
+     * Binds an algorithm run to a worker.
+     *
+     * @param algorithmRunId ID of the algorithm run
+     * @param worker         worker to bind
+     */
+    public void bind(String algorithmRunId, Worker worker) {
+        bindings.get(algorithmRunId).workers.add(worker);
+        runsByWorker.computeIfAbsent(worker.getIdentity(), w -> new HashSet<>()).add(algorithmRunId);
+    }
+
+    /**
+     * Releases all bindings of a worker, e.g. because it was purged.
+     *
+     * @param worker worker to unbind
+     */
+    public void unbind(Worker worker) {
+        Set<String> runs = runsByWorker.remove(worker.getIdentity());
+        if (runs != null) {
+            for (String run : runs) {
+                bindings.get(run).workers.remove(worker);
+            }
+        }
+    }
+
+    /**
+     * Releases an algorithm run, e.g. because it was stopped.
+     *
+     * @param algorithmRunId ID of the algorithm run
+     */
+    public void release(String algorithmRunId) {
+        Binding binding = bindings.remove(algorithmRunId);
+        if (binding == null) {
+            return;
+        }
+        for (Worker worker : binding.workers) {
+            Set<String> runs = runsByWorker.get(worker.getIdentity());
+            runs.remove(algorithmRunId);
+            if (runs.isEmpty()) {
+                runsByWorker.remove(worker.getIdentity());
+            }
+        }
+    }
+
+    /**
+     * @return number of known algorithm runs
+     */
+    public int size() {
+        return bindings.size();
+    }
+
+    public int getWorkersPerRun() {
+        return workersPerRun;
+    }
+
+    /**
+     * Workers an algorithm run is bound to.
+     */
+    public static class Binding {
+        private long language;
+        private Set<Worker> workers = new LinkedHashSet<>();
+        private byte[] startRequest; //  Serialized Wrapper of the StartAlgorithmRequest
+
+        private Binding(long language) {
+            this.language = language;
+        }
+
+        public long getLanguage() {
+            return language;
+        }
+
+        public Set<Worker> getWorkers() {
+            return Collections.unmodifiableSet(workers);
+        }
+
+        public byte[] getStartRequest() {
+            return startRequest;
+        }
+
+        public void setStartRequest(byte[] startRequest) {
+            this.startRequest = startRequest;
+        }
+    }
+}
@@ -31,15 +31,36 @@ public class Worker {
     private List<Long> supportedLanguages;
     private boolean isConfigWorker;
 
-    protected Worker(ZFrame address, List<Long> supportedLanguages, boolean isConfigWorker, int heartbeatInterval, int heartbeatLiveness) {
+    private int concurrency; //  Maximum number of requests in flight
+    private int inFlight;    //  Requests sent to the worker that were not replied yet
+
+    private long busyNanos;   //  Sum of inFlight over time since the last utilisation sample
+    private long lastChange;  //  Time inFlight last changed (System.nanoTime)
+    private long sampleStart; //  Time of the last utilisation sample
+
+    protected Worker(ZFrame address, List<Long> supportedLanguages, boolean isConfigWorker, int concurrency, int heartbeatInterval, int heartbeatLiveness) {
         this.address = address;
         this.supportedLanguages = supportedLanguages;
         this.isConfigWorker = isConfigWorker;
+        this.concurrency = Math.max(1, concurrency);
         this.heartbeatInterval = heartbeatInterval;
         this.heartbeatLiveness = heartbeatLiveness;
 
-        this.identity = UuidHelper.getUUIDFromBytes(address.getData()).toString();
+        this.identity = getIdentity(address.getData());
         resetExpiry();
+        lastChange = sampleStart = System.nanoTime();
+    }
+
+    /**
+     * Returns the printable identity of a worker address.
+     * @param address: ZMQ identity of the worker.
+     * @return UUID of the worker, or the address in hex if it is not a UUID.
+     */
+    public static String getIdentity(byte[] address) {
+        if (address.length == 16) {
+            return UuidHelper.getUUIDFromBytes(address).toString();
+        }
+        return new ZFrame(address).strhex();
     }
 
     /**
@@ -49,6 +70,57 @@ public class Worker {
         expiry = System.currentTimeMillis() + heartbeatInterval * heartbeatLiveness;
     }
 
+    /**
+     * @return true if the worker can take another request.
+     */
+    public boolean hasCredit() {
+        return inFlight < concurrency;
+    }
+
+    /**
+     * @return Number of further requests the worker can take.
+     */
+    public int getCredits() {
+        return Math.max(0, concurrency - inFlight);
+    }
+
+    /**
+     * Takes a credit of the worker, as a request is sent to it.
+     */
+    public void acquire() {
+        accumulate(System.nanoTime());
+        inFlight++;
+    }
+
+    /**
+     * Returns a credit to the worker, as it replied to a request.
+     */
+    public void release() {
+        if (inFlight > 0) {
+            accumulate(System.nanoTime());
+            inFlight--;
+        }
+    }
+
+    private void accumulate(long now) {
+        busyNanos += inFlight * (now - lastChange);
+        lastChange = now;
+    }
+
+    /**
+     * Returns the utilisation of the worker since the last sample and starts a new sample.
+     * @param now: Current time (System.nanoTime).
+     * @return Average share of the credits of the worker that were in use, between 0 and 1 (or above if over-committed).
+     */
+    public double sampleUtilisation(long now) {
+        accumulate(now);
+        long elapsed = now - sampleStart;
+        double utilisation = elapsed <= 0 ? 0 : (double) busyNanos / ((long) concurrency * elapsed);
+        busyNanos = 0;
+        sampleStart = now;
+        return utilisation;
+    }
+
     public ZFrame getAddress() {
         // if frame is sent, its memory is freed, which also frees the workers address
         // thus, return a copy of the address
@@ -71,6 +143,14 @@ public class Worker {
         return isConfigWorker;
     }
 
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("[");
@@ -79,6 +159,8 @@ public class Worker {
         sb.append(isConfigWorker);
         sb.append(", languages: ");
         sb.append(supportedLanguages);
+        sb.append(", concurrency: ");
+        sb.append(concurrency);
         sb.append("]");
         return sb.toString();
     }
@@ -13,93 +13,138 @@ package at.fh.hagenberg.aist.hlc.broker;
 
 import org.zeromq.ZFrame;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Queue that implements the Paranoid Pirate Pattern, based on http://zguide.zeromq.org/java:ppqueue.
+ * Available workers are indexed by identity, supported language and config capability,
+ * so pushing, popping and removing workers does not depend on the number of workers.
  *
  * @author Daniel Dorfmeister on 2019-06-19
  */
 public class WorkerQueue implements Iterable<Worker> {
 
-    private java.util.Queue<Worker> availableWorkers = new java.util.LinkedList<>();
+    //  All available workers by identity, least recently used first
+    private LinkedHashMap<String, Worker> availableWorkers = new LinkedHashMap<>();
+    //  Available workers by supported language, least recently used first
+    private Map<Long, LinkedHashMap<String, Worker>> languageWorkers = new HashMap<>();
+    //  Available config workers, least recently used first
+    private LinkedHashMap<String, Worker> configWorkers = new LinkedHashMap<>();
 
     /**
-     * Adds a worker to the end of the queue.
+     * Adds a worker to the end of the queue, if it can take another request.
      * @param worker: The worker to add.
      */
     public void push(Worker worker) {
-        Iterator<Worker> it = availableWorkers.iterator();
-        while (it.hasNext()) {
-            Worker w = it.next();
-            if (worker.getIdentity().equals(w.getIdentity())) {
-                it.remove();
-                break;
-            }
+        remove(worker);
+        if (!worker.hasCredit()) {
+            return;
+        }
+
+        availableWorkers.put(worker.getIdentity(), worker);
+        for (Long language : worker.getSupportedLanguages()) {
+            languageWorkers.computeIfAbsent(language, l -> new LinkedHashMap<>()).put(worker.getIdentity(), worker);
+        }
+        if (worker.isConfigWorker()) {
+            configWorkers.put(worker.getIdentity(), worker);
         }
-        availableWorkers.add(worker);
     }
 
     /**
-     * Returns the first available worker.
-     * @return A ZFrame containing the address of the first available worker.
+     * Removes a worker from the queue.
+     * @param worker: The worker to remove.
+     * @return true if the worker was available.
      */
-    public ZFrame pop(long language) {
-        Worker worker = availableWorkers.stream()
-                .filter(w -> w.getSupportedLanguages().contains(language))
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("no worker supporting language with ID " + language + " registered"));
-        ZFrame frame = worker.getAddress();
-        return frame;
+    public boolean remove(Worker worker) {
+        if (availableWorkers.remove(worker.getIdentity()) == null) {
+            return false;
+        }
+
+        for (Long language : worker.getSupportedLanguages()) {
+            LinkedHashMap<String, Worker> workers = languageWorkers.get(language);
+            if (workers != null) {
+                workers.remove(worker.getIdentity());
+            }
+        }
+        configWorkers.remove(worker.getIdentity());
+        return true;
     }
 
     /**
-     * Returns the first available worker.
-     * @return A ZFrame containing the address of the first available worker.
+     * Takes a credit of the worker. The worker moves to the end of the queue if it can take further requests.
+     * @param worker: The worker a request is sent to.
+     * @return A ZFrame containing the address of the worker.
      */
-    public ZFrame pop(boolean getConfigWorker) {
-        if (!getConfigWorker)
-            return pop();
-
-        Worker worker = availableWorkers.stream()
-                .filter(Worker::isConfigWorker)
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("no config worker registered"));
-        ZFrame frame = worker.getAddress();
-        return frame;
+    private ZFrame take(Worker worker) {
+        worker.acquire();
+        push(worker);
+        return worker.getAddress();
+    }
+
+    private static Worker first(LinkedHashMap<String, Worker> workers) {
+        if (workers == null || workers.isEmpty()) {
+            return null;
+        }
+        return workers.values().iterator().next();
     }
 
     /**
-     * Returns the first available worker.
-     * @return A ZFrame containing the address of the first available worker.
+     * Takes a credit of the given worker.
+     * @param worker: The worker to take, it must be able to take another request.
+     * @return A ZFrame containing the address of the worker.
      */
-    public ZFrame pop() {
-        Worker worker = availableWorkers.poll();
-        if (worker == null)
-            throw new IllegalStateException("no worker registered");
-        ZFrame frame = worker.getAddress();
-        return frame;
+    public ZFrame pop(Worker worker) {
+        if (!worker.hasCredit())
+            throw new IllegalStateException("worker " + worker.getIdentity() + " has no credit left");
+        return take(worker);
     }
 
     /**
-     * Removes expired workers.
-     * @return List of purged workers.
+     * Returns the least recently used available worker that supports the given language without removing it.
+     * @param language: ID of the language the worker must support.
+     * @param excluded: Workers that must not be returned.
+     * @return The worker, or null if no such worker is available.
      */
-    public List<Worker> purge() {
-        Iterator<Worker> it = availableWorkers.iterator();
-        List<Worker> purgedWorkers = new ArrayList<>();
-        while (it.hasNext()) {
-            Worker worker = it.next();
-            //  We hold availableWorkers from oldest to most recent, so we stop at the first alive worker.
-            if (System.currentTimeMillis() < worker.getExpiry()) {
-                break;
+    public Worker peek(long language, Set<Worker> excluded) {
+        LinkedHashMap<String, Worker> workers = languageWorkers.get(language);
+        if (workers != null) {
+            for (Worker worker : workers.values()) {
+                if (!excluded.contains(worker)) {
+                    return worker;
+                }
             }
-            purgedWorkers.add(worker);
-            it.remove();
         }
-        return purgedWorkers;
+        return null;
+    }
+
+    /**
+     * @param worker: The worker to check.
+     * @return true if the worker is available.
+     */
+    public boolean contains(Worker worker) {
+        return availableWorkers.containsKey(worker.getIdentity());
+    }
+
+    /**
+     * @return Number of available config workers.
+     */
+    public int countConfigWorkers() {
+        return configWorkers.size();
+    }
+
+    /**
+     * Returns the first available worker.
+     * @return A ZFrame containing the address of the first available worker.
+     */
+    public ZFrame pop(boolean getConfigWorker) {
+        Worker worker = first(getConfigWorker ? configWorkers : availableWorkers);
+        if (worker == null)
+            throw new IllegalStateException(getConfigWorker ? "no config worker available" : "no worker available");
+        return take(worker);
     }
 
     public int size() {
@@ -108,10 +153,12 @@ public class WorkerQueue implements Iterable<Worker> {
 
     public void clear() {
         availableWorkers.clear();
+        languageWorkers.clear();
+        configWorkers.clear();
     }
 
     @Override
-    public Iterator iterator() {
-        return availableWorkers.iterator();
+    public Iterator<Worker> iterator() {
+        return availableWorkers.values().iterator();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.broker;
+
+import at.fh.hagenberg.aist.hlc.core.messages.EvaluatorBatchResponse;
+import at.fh.hagenberg.aist.hlc.core.messages.EvaluatorResponse;
+import at.fh.hagenberg.aist.hlc.core.messages.Wrapper;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.zeromq.ZMsg;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BatchSplitTest {
+
+    private static BatchSplit split(int parts, boolean batch) {
+        ZMsg envelope = new ZMsg();
+        envelope.add("client");
+        envelope.add(new byte[0]);
+        return new BatchSplit(7, envelope, parts, 42, batch, Long.MAX_VALUE);
+    }
+
+    private static Any responses(int from, int to) {
+        EvaluatorBatchResponse.Builder batch = EvaluatorBatchResponse.newBuilder();
+        for (int i = from; i < to; i++) {
+            batch.addResponses(EvaluatorResponse.newBuilder().setSolutionId(i));
+        }
+        return Any.pack(batch.build());
+    }
+
+    private static Wrapper reply(ZMsg msg) throws InvalidProtocolBufferException {
+        Assert.assertEquals(msg.size(), 3);
+        Assert.assertEquals(msg.getFirst().toString(), "client");
+        return Wrapper.parseFrom(msg.getLast().getData());
+    }
+
+    @Test
+    public void testToken() {
+        BatchSplit split = split(3, true);
+
+        Assert.assertTrue(BatchSplit.isToken(split.getToken(2)));
+        Assert.assertEquals(BatchSplit.getId(split.getToken(2)), 7);
+        Assert.assertEquals(BatchSplit.getPart(split.getToken(2)), 2);
+    }
+
+    @Test
+    public void testOpenParts() {
+        BatchSplit split = split(3, true);
+        split.assign(0, "a");
+        split.assign(1, "b");
+        split.assign(2, "a");
+
+        Assert.assertEquals(split.getOpenParts("a"), Arrays.asList(0, 2));
+        split.complete(0, responses(0, 3));
+        Assert.assertEquals(split.getOpenParts("a"), Collections.singletonList(2));
+        Assert.assertTrue(split.getOpenParts("c").isEmpty());
+    }
+
+    @Test
+    public void testMerge() throws InvalidProtocolBufferException {
+        BatchSplit split = split(2, true);
+
+        //  Parts may complete in any order
+        Assert.assertFalse(split.complete(1, responses(3, 5)));
+        Assert.assertFalse(split.complete(1, responses(3, 5)));
+        Assert.assertTrue(split.complete(0, responses(0, 3)));
+        Assert.assertTrue(split.succeeded());
+
+        Wrapper reply = reply(split.merge());
+        Assert.assertEquals(reply.getRequestId(), 42);
+        Assert.assertEquals(reply.getMessage(), responses(0, 5));
+    }
+
+    @Test
+    public void testMergeErrorPart() throws InvalidProtocolBufferException {
+        BatchSplit split = split(2, true);
+        split.complete(0, responses(0, 3));
+        split.complete(1, Any.pack(Empty.getDefaultInstance()));
+
+        Assert.assertFalse(split.succeeded());
+        Wrapper reply = reply(split.merge());
+        Assert.assertEquals(reply.getRequestId(), 42);
+        Assert.assertTrue(reply.getMessage().is(Empty.class));
+    }
+
+    @Test
+    public void testError() throws InvalidProtocolBufferException {
+        BatchSplit split = split(2, true);
+        split.complete(0, responses(0, 3));
+
+        Wrapper reply = reply(split.error());
+        Assert.assertEquals(reply.getRequestId(), 42);
+        Assert.assertTrue(reply.getMessage().is(Empty.class));
+    }
+
+    @Test
+    public void testNoBatch() throws InvalidProtocolBufferException {
+        BatchSplit split = split(2, false);
+        //  Workers reply to a StopAlgorithmRequest with Empty, which is forwarded as it is
+        Any stopped = Any.pack(Empty.getDefaultInstance());
+        split.complete(0, stopped);
+        split.complete(1, stopped);
+
+        Assert.assertTrue(split.succeeded());
+        Assert.assertEquals(reply(split.merge()).getMessage(), stopped);
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.client;
+
+import at.fh.hagenberg.aist.hlc.core.messages.StartAlgorithmRequest;
+import at.fh.hagenberg.aist.hlc.core.messages.StartAlgorithmResponse;
+import at.fh.hagenberg.aist.hlc.core.messages.Wrapper;
+import at.fh.hagenberg.aist.seshat.Logger;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.zeromq.ZContext;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous client of the broker frontend, the Java counterpart of MessagesExtensions.Send of HeuristicLab.
+ * Instead of a REQ socket with one outstanding request, a DEALER socket is used, so any number of requests can be
+ * in flight; replies are correlated with requests by the request ID of the Wrapper.
+ * <p>
+ * The socket is owned by a single I/O thread. Requests are serialized by the calling thread and handed over
+ * to the I/O thread via a queue, a pipe wakes it up. If no reply arrives within {@link #timeout} msecs,
+ * the request is sent again up to {@link #retries} times, like the C# client does.
+ * The futures are completed on the I/O thread, so long-running continuations should use the async variants
+ * of CompletableFuture.
+ */
+public class BrokerClient implements AutoCloseable {
+
+    private String brokerFrontend;
+    private int timeout = 3000;
+    private int retries = 2;
+    private Logger logger = Logger.getInstance(BrokerClient.class.getName());
+
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Queue<Call<?>> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private Pipe wakeup;
+    private Thread thread;
+    private volatile boolean running;
+
+    public BrokerClient() {
+    }
+
+    public BrokerClient(String brokerFrontend) {
+        this.brokerFrontend = brokerFrontend;
+    }
+
+    /**
+     * Connects to the broker frontend and starts the I/O thread.
+     *
+     * @throws IOException if the wake-up pipe can not be opened.
+     */
+    public synchronized void connect() throws IOException {
+        if (running) {
+            return;
+        }
+
+        wakeup = Pipe.open();
+        wakeup.source().configureBlocking(false);
+        running = true;
+        thread = new Thread(this::run, "hlc-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the I/O thread, requests that are still in flight fail.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        wake();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            wakeup.sink().close();
+            wakeup.source().close();
+        } catch (IOException e) {
+            logger.warn("could not close wake-up pipe: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a request that is not associated with an algorithm run (e.g. ConfigurationRequest).
+     *
+     * @param request:      The request.
+     * @param responseType: Expected type of the response.
+     * @return The response.
+     */
+    public <T extends Message> CompletableFuture<T> send(Message request, Class<T> responseType) {
+        return send(null, null, request, responseType, timeout, retries);
+    }
+
+    /**
+     * Sends a request of an algorithm run that was started with {@link #start}.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param request:        The request.
+     * @param responseType:   Expected type of the response.
+     * @return The response.
+     */
+    public <T extends Message> CompletableFuture<T> send(String algorithmRunId, Message request, Class<T> responseType) {
+        return send(algorithmRunId, null, request, responseType, timeout, retries);
+    }
+
+    /**
+     * Starts an algorithm run. The language ID is sent along, as the broker needs it to select workers for the run.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param languageId:     ID of the language that must be supported by the workers.
+     * @param request:        The request.
+     * @return The response.
+     */
+    public CompletableFuture<StartAlgorithmResponse> start(String algorithmRunId, long languageId, StartAlgorithmRequest request) {
+        return send(algorithmRunId, languageId, request, StartAlgorithmResponse.class, timeout, retries);
+    }
+
+    /**
+     * Sends a request to the broker (frames: empty, [algorithm run ID, [language ID]], Wrapper).
+     *
+     * @param algorithmRunId: ID of the algorithm run, null if the request is not associated with a run.
+     * @param languageId:     ID of the language, only sent with the first request of an algorithm run.
+     * @param request:        The request.
+     * @param responseType:   Expected type of the response.
+     * @param timeout:        Time to wait for a reply before the request is sent again [msecs].
+     * @param retries:        Number of times the request is sent again.
+     * @return The response. Fails with a TimeoutException if no reply arrived, or with an IllegalStateException
+     * if the response is not of the expected type (e.g. because the worker could not process the request).
+     */
+    public <T extends Message> CompletableFuture<T> send(String algorithmRunId, Long languageId, Message request,
+                                                         Class<T> responseType, int timeout, int retries) {
+        long requestId = nextRequestId.incrementAndGet();
+        Wrapper wrapper = Wrapper.newBuilder().setMessage(Any.pack(request)).setRequestId(requestId).build();
+
+        List<byte[]> frames = new ArrayList<>(3);
+        if (algorithmRunId != null) {
+            frames.add(algorithmRunId.getBytes(ZMQ.CHARSET));
+            if (languageId != null) {
+                frames.add(languageId.toString().getBytes(ZMQ.CHARSET));
+            }
+        }
+        frames.add(wrapper.toByteArray());
+
+        Call<T> call = new Call<>(requestId, frames, responseType, timeout, retries);
+        if (!running) {
+            call.future.completeExceptionally(new IllegalStateException("client is not connected"));
+            return call.future;
+        }
+
+        outgoing.add(call);
+        wake();
+        if (!running && outgoing.remove(call)) { //  Closed concurrently
+            call.future.completeExceptionally(new IllegalStateException("client was closed"));
+        }
+        return call.future;
+    }
+
+    /**
+     * Wakes up the I/O thread, unless it was woken up already and did not take the queued requests yet.
+     */
+    private void wake() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            try {
+                wakeup.sink().write(ByteBuffer.wrap(new byte[1]));
+            } catch (IOException e) {
+                logger.error("could not wake up client thread: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Main loop of the I/O thread.
+     */
+    private void run() {
+        Map<Long, Call<?>> pending = new HashMap<>();
+        PriorityQueue<Deadline> deadlines = new PriorityQueue<>(Comparator.comparingLong(d -> d.at));
+        ByteBuffer drain = ByteBuffer.allocate(64);
+
+        try (ZContext ctx = new ZContext()) {
+            Socket socket = ctx.createSocket(ZMQ.DEALER);
+            //  The I/O thread must never block on a send, requests are bounded by their deadlines instead
+            socket.setSndHWM(0);
+            socket.setRcvHWM(0);
+            socket.setLinger(0);
+            socket.connect(brokerFrontend);
+
+            Poller poller = ctx.createPoller(2);
+            poller.register(socket, Poller.POLLIN);
+            poller.register(wakeup.source(), Poller.POLLIN);
+
+            while (running) {
+                long wait = -1;
+                if (!deadlines.isEmpty()) {
+                    wait = Math.max(0, deadlines.peek().at - System.currentTimeMillis());
+                }
+                if (poller.poll(wait) == -1)
+                    break; //  Interrupted
+
+                //  Replies
+                if (poller.pollin(0)) {
+                    ZMsg msg;
+                    while ((msg = ZMsg.recvMsg(socket, ZMQ.DONTWAIT)) != null) {
+                        receive(msg, pending);
+                    }
+                }
+
+                //  New requests
+                if (poller.pollin(1)) {
+                    try {
+                        while (wakeup.source().read(drain) > 0) {
+                            drain.clear();
+                        }
+                    } catch (IOException e) {
+                        logger.error("could not read wake-up pipe: " + e.getMessage());
+                    }
+                }
+                wakeupPending.set(false);
+                Call<?> call;
+                while ((call = outgoing.poll()) != null) {
+                    if (!call.future.isDone()) {
+                        pending.put(call.requestId, call);
+                        deadlines.add(call.send(socket));
+                    }
+                }
+
+                //  Requests without reply
+                long now = System.currentTimeMillis();
+                while (!deadlines.isEmpty() && deadlines.peek().at <= now) {
+                    Deadline deadline = deadlines.poll();
+                    call = deadline.call;
+                    if (call.future.isDone()) {
+                        pending.remove(call.requestId); //  Cancelled by the caller
+                    } else if (call.attempt <= call.retries) {
+                        logger.warn("no reply to request " + call.requestId + ", sending it again");
+                        deadlines.add(call.send(socket));
+                    } else {
+                        pending.remove(call.requestId);
+                        call.future.completeExceptionally(
+                                new TimeoutException("Receiving a response from the broker timed out."));
+                    }
+                }
+            }
+        } finally {
+            running = false;
+            IllegalStateException closed = new IllegalStateException("client was closed");
+            pending.values().forEach(c -> c.future.completeExceptionally(closed));
+            outgoing.forEach(c -> c.future.completeExceptionally(closed));
+            outgoing.clear();
+        }
+    }
+
+    /**
+     * Completes the call a reply belongs to. Replies to calls that already completed (e.g. a second reply
+     * to a request that was sent again) are dropped.
+     *
+     * @param msg:     Reply of the broker (frames: empty, Wrapper).
+     * @param pending: Calls waiting for a reply by request ID.
+     */
+    private void receive(ZMsg msg, Map<Long, Call<?>> pending) {
+        try {
+            Wrapper wrapper = Wrapper.parseFrom(msg.getLast().getData());
+            Call<?> call = pending.remove(wrapper.getRequestId());
+            if (call != null) {
+                call.complete(wrapper.getMessage());
+            }
+        } catch (InvalidProtocolBufferException e) {
+            logger.error("invalid reply from broker: " + e.getMessage());
+        } finally {
+            msg.destroy();
+        }
+    }
+
+    /**
+     * A request and the future of its response.
+     */
+    private static class Call<T extends Message> {
+        private final long requestId;
+        private final List<byte[]> frames;
+        private final Class<T> responseType;
+        private final int timeout;
+        private final int retries;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int attempt;
+
+        private Call(long requestId, List<byte[]> frames, Class<T> responseType, int timeout, int retries) {
+            this.requestId = requestId;
+            this.frames = frames;
+            this.responseType = responseType;
+            this.timeout = timeout;
+            this.retries = retries;
+        }
+
+        /**
+         * @param socket: DEALER socket connected to the broker frontend.
+         * @return The deadline of this attempt.
+         */
+        private Deadline send(Socket socket) {
+            ZMsg msg = new ZMsg();
+            msg.add(new ZFrame(new byte[0]));
+            frames.forEach(msg::add);
+            msg.send(socket);
+            attempt++;
+            return new Deadline(this, System.currentTimeMillis() + timeout);
+        }
+
+        private void complete(Any response) {
+            if (response.is(responseType)) {
+                try {
+                    future.complete(response.unpack(responseType));
+                } catch (InvalidProtocolBufferException e) {
+                    future.completeExceptionally(e);
+                }
+            } else {
+                future.completeExceptionally(new IllegalStateException(
+                        "Expected response of type " + responseType.getSimpleName() + " but got " + response.getTypeUrl()));
+            }
+        }
+    }
+
+    /**
+     * Point in time at which the current attempt of a call times out. Deadlines of completed calls are ignored.
+     */
+    private static class Deadline {
+        private final Call<?> call;
+        private final long at;
+
+        private Deadline(Call<?> call, long at) {
+            this.call = call;
+            this.at = at;
+        }
+    }
+
+    public String getBrokerFrontend() {
+        return brokerFrontend;
+    }
+
+    public void setBrokerFrontend(String brokerFrontend) {
+        this.brokerFrontend = brokerFrontend;
+    }
+
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Integer timeout) {
+        this.timeout = timeout;
+    }
+
+    public Integer getRetries() {
+        return retries;
+    }
+
+    public void setRetries(Integer retries) {
+        this.retries = retries;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+}
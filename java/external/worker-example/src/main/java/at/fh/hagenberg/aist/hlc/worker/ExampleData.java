@@ -11,6 +11,7 @@
 
 package at.fh.hagenberg.aist.hlc.worker;
 
+import at.fh.hagenberg.aist.hlc.core.FlatTree;
 import at.fh.hagenberg.aist.hlc.core.messages.*;
 
 import java.time.Duration;
@@ -133,6 +134,13 @@ public class ExampleData {
         }
     };
 
+    private static Dictionary<Long, PackedTree> packedTrees = new Hashtable<Long, PackedTree>() {
+        {
+            put(1L, FlatTree.of(trees.get(1L), true).toPackedTree());
+            put(2L, FlatTree.of(trees.get(2L), true).toPackedTree());
+        }
+    };
+
     private static Dictionary<Long, Double> qualities = new Hashtable<Long, Double>() {
         {
             put(1L, 5.0);
@@ -293,6 +301,10 @@ public class ExampleData {
         return trees;
     }
 
+    public Dictionary<Long, PackedTree> getPackedTrees() {
+        return packedTrees;
+    }
+
     public Dictionary<Long, Double> getQualities() {
         return qualities;
     }
@@ -13,11 +13,15 @@ package at.fh.hagenberg.aist.hlc.worker;
 
 import at.fh.hagenberg.aist.hlc.core.ConfigurationManagementWorker;
 import at.fh.hagenberg.aist.hlc.core.ExternalOptimizationWorker;
+import at.fh.hagenberg.aist.hlc.core.FlatTree;
+import at.fh.hagenberg.aist.hlc.core.TreeHash;
 import at.fh.hagenberg.aist.hlc.core.messages.*;
-import org.springframework.context.support.ClassPathXmlApplicationContext;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Dummy implementation for ExternalOptimizationWorker interface.
@@ -28,6 +32,12 @@ public class ExampleExternalOptimizationWorker implements ExternalOptimizationWo
 
     private ExampleData data = new ExampleData();
 
+    // encoding of the trees requested by each algorithm run
+    private Map<String, TreeEncoding> treeEncodings = new ConcurrentHashMap<>();
+
+    // trees of the solutions of all algorithm runs, stored off-heap
+    private SolutionStore solutionStore = new SolutionStore();
+
     public static void main(String[] args) {
         ClassPathXmlApplicationContext configCtx = new ClassPathXmlApplicationContext("exampleConfig.xml");
         Worker worker = configCtx.getBean("worker", Worker.class);
@@ -83,6 +93,8 @@ public class ExampleExternalOptimizationWorker implements ExternalOptimizationWo
             // option config is not used, as only predefined trees are available
         }
 
+        treeEncodings.put(algorithmRunId, request.getTreeEncoding());
+
         StartAlgorithmResponse response = StartAlgorithmResponse.newBuilder()
                 .setSuccess(errorMessage.isEmpty())
                 .setErrorMessage(errorMessage).build();
@@ -96,6 +108,32 @@ public class ExampleExternalOptimizationWorker implements ExternalOptimizationWo
         } else if (request.getExecutionState() == ExecutionState.PAUSED) {
             // do something
         }
+        treeEncodings.remove(algorithmRunId);
+        solutionStore.release(algorithmRunId);
+    }
+
+    private boolean isPacked(String algorithmRunId) {
+        return treeEncodings.get(algorithmRunId) == TreeEncoding.PACKED;
+    }
+
+    /**
+     * Stores the tree of a new solution, so later requests can refer to it by ID.
+     */
+    private void storeSolution(String algorithmRunId, long solutionId) {
+        solutionStore.put(algorithmRunId, solutionId, data.getPackedTrees().get(solutionId));
+    }
+
+    /**
+     * Loads the tree of a solution. Solutions that are not stored (e.g. because they were created by another
+     * worker of the algorithm run) are taken from the predefined trees.
+     */
+    private FlatTree loadSolution(String algorithmRunId, long solutionId) {
+        try {
+            PackedTree tree = solutionStore.get(algorithmRunId, solutionId, PackedTree.parser());
+            return FlatTree.of(tree != null ? tree : data.getPackedTrees().get(solutionId));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Solution " + solutionId + " is corrupt.", e);
+        }
     }
 
     @Override
@@ -116,11 +154,16 @@ public class ExampleExternalOptimizationWorker implements ExternalOptimizationWo
     private SolutionCreatorResponse create(String algorithmRunId, SolutionCreatorRequest request) {
         Random rand = new Random();
         long solutionId =  rand.nextFloat() < 0.7 ? 1L : 2L;
+        storeSolution(algorithmRunId, solutionId);
 
-        SolutionCreatorResponse response = SolutionCreatorResponse.newBuilder()
-                .setSolutionId(solutionId)
-                .setTree(data.getTrees().get(solutionId)).build();
-        return response;
+        SolutionCreatorResponse.Builder response = SolutionCreatorResponse.newBuilder()
+                .setSolutionId(solutionId);
+        if (isPacked(algorithmRunId)) {
+            response.setPackedTree(data.getPackedTrees().get(solutionId));
+        } else {
+            response.setTree(data.getTrees().get(solutionId));
+        }
+        return response.build();
     }
 
     private EvaluatorResponse evaluate(String algorithmRunId, EvaluatorRequest request) {
@@ -133,25 +176,56 @@ public class ExampleExternalOptimizationWorker implements ExternalOptimizationWo
     }
 
     private CrossoverResponse cross(String algorithmRunId, CrossoverRequest request) {
-        long childTreeId = request.getParentSolutionId1(); // use first parent as child
-        TreeNode childTree = data.getTrees().get(childTreeId);
-
-        CrossoverResponse response = CrossoverResponse.newBuilder()
+        FlatTree parent1 = loadSolution(algorithmRunId, request.getParentSolutionId1());
+        FlatTree parent2 = loadSolution(algorithmRunId, request.getParentSolutionId2());
+        // parents are not recombined, as only predefined trees are available: the larger parent is used as child
+        long childTreeId = parent1.size() >= parent2.size()
+                ? request.getParentSolutionId1()
+                : request.getParentSolutionId2();
+        storeSolution(algorithmRunId, childTreeId);
+
+        CrossoverResponse.Builder response = CrossoverResponse.newBuilder()
                 .setParentSolutionId1(request.getParentSolutionId1())
                 .setParentSolutionId2(request.getParentSolutionId2())
-                .setChildSolutionId(childTreeId)
-                .setTree(childTree).build();
-        return response;
+                .setChildSolutionId(childTreeId);
+        if (isPacked(algorithmRunId)) {
+            response.setPackedTree(data.getPackedTrees().get(childTreeId));
+        } else {
+            response.setTree(data.getTrees().get(childTreeId));
+        }
+        return response.build();
     }
 
     private ManipulatorResponse mutate(String algorithmRunId, ManipulatorRequest request) {
-        long manipulatedTreeId = request.getSolutionId() == 1L ? 2L : 1L;
-        TreeNode manipulatedTree = data.getTrees().get(manipulatedTreeId);
+        FlatTree tree = loadSolution(algorithmRunId, request.getSolutionId());
+        // tree is not manipulated, as only predefined trees are available: another predefined tree is used
+        TreeHash.Key key = TreeHash.key(tree);
+        long manipulatedTreeId = request.getSolutionId();
+        for (Enumeration<Long> ids = data.getPackedTrees().keys(); ids.hasMoreElements(); ) {
+            long id = ids.nextElement();
+            if (!TreeHash.key(data.getPackedTrees().get(id)).equals(key)) {
+                manipulatedTreeId = id;
+                break;
+            }
+        }
+        storeSolution(algorithmRunId, manipulatedTreeId);
 
-        ManipulatorResponse response = ManipulatorResponse.newBuilder()
+        ManipulatorResponse.Builder response = ManipulatorResponse.newBuilder()
                 .setSolutionId(request.getSolutionId())
-                .setManipulatedSolutionId(manipulatedTreeId)
-                .setTree(manipulatedTree).build();
-        return response;
+                .setManipulatedSolutionId(manipulatedTreeId);
+        if (isPacked(algorithmRunId)) {
+            response.setPackedTree(data.getPackedTrees().get(manipulatedTreeId));
+        } else {
+            response.setTree(data.getTrees().get(manipulatedTreeId));
+        }
+        return response.build();
+    }
+
+    public SolutionStore getSolutionStore() {
+        return solutionStore;
+    }
+
+    public void setSolutionStore(SolutionStore solutionStore) {
+        this.solutionStore = solutionStore;
     }
 }
@@ -0,0 +1,278 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.worker;
+
+import at.fh.hagenberg.aist.hlc.core.ExternalOptimizationWorker;
+import at.fh.hagenberg.aist.hlc.core.TreeHash;
+import at.fh.hagenberg.aist.hlc.core.messages.*;
+import com.google.protobuf.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the qualities of evaluated trees for another ExternalOptimizationWorker.
+ * GP populations contain many structurally identical trees (survivors, children identical to a parent,
+ * mutations without effect), so an EvaluatorRequest for a tree with the same symbols and shape as an
+ * already evaluated tree of the same problem is answered from the cache.
+ * <p>
+ * The trees are taken from the responses of the SolutionCreator, Crossover and Manipulator operators.
+ * Qualities are cached per ProblemDefinition and dropped when the last algorithm run of the problem is stopped.
+ * The evaluation of the wrapped worker must be deterministic.
+ * Trees are identified by their {@link TreeHash.Key}, so trees whose 64-bit hashes collide are not mixed up.
+ * The Worker exposes the hits and misses via JMX, see {@link CachingOptimizationWorkerMXBean}.
+ */
+public class CachingOptimizationWorker implements ExternalOptimizationWorker, CachingOptimizationWorkerMXBean {
+
+    private ExternalOptimizationWorker worker;
+    private int cacheSize = 10000;
+    private int solutionsPerRun = 100000;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    //  Problem of each algorithm run
+    private final Map<String, ProblemDefinition> problems = new ConcurrentHashMap<>();
+    //  Qualities by tree key, per problem
+    private final Map<ProblemDefinition, LruCache<TreeHash.Key, Double>> qualities = new ConcurrentHashMap<>();
+    //  Tree keys by solution ID, per algorithm run
+    private final Map<String, LruCache<Long, TreeHash.Key>> solutions = new ConcurrentHashMap<>();
+
+    @Override
+    public StartAlgorithmResponse configure(String algorithmRunId, StartAlgorithmRequest request) {
+        StartAlgorithmResponse response = worker.configure(algorithmRunId, request);
+        if (response.getSuccess()) {
+            synchronized (this) {
+                ProblemDefinition problem = request.getProblemDefinition();
+                problems.put(algorithmRunId, problem);
+                qualities.computeIfAbsent(problem, p -> new LruCache<>(cacheSize));
+                solutions.computeIfAbsent(algorithmRunId, r -> new LruCache<>(solutionsPerRun));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public Message operate(String algorithmRunId, Message request) {
+        if (request instanceof EvaluatorRequest) {
+            return evaluate(algorithmRunId, Collections.singletonList(request)).get(0);
+        }
+
+        Message response = worker.operate(algorithmRunId, request);
+        record(algorithmRunId, response);
+        return response;
+    }
+
+    @Override
+    public List<Message> operateBatch(String algorithmRunId, List<Message> requests) {
+        if (!requests.isEmpty() && requests.get(0) instanceof EvaluatorRequest) {
+            return evaluate(algorithmRunId, requests);
+        }
+
+        List<Message> responses = worker.operateBatch(algorithmRunId, requests);
+        responses.forEach(response -> record(algorithmRunId, response));
+        return responses;
+    }
+
+    @Override
+    public void shutdown(String algorithmRunId, StopAlgorithmRequest request) {
+        worker.shutdown(algorithmRunId, request);
+        synchronized (this) {
+            solutions.remove(algorithmRunId);
+            ProblemDefinition problem = problems.remove(algorithmRunId);
+            if (problem != null && !problems.containsValue(problem)) {
+                qualities.remove(problem);
+            }
+        }
+    }
+
+    /**
+     * Evaluates solutions, only trees that are not in the cache are evaluated by the wrapped worker.
+     * Structurally identical trees within the requests are evaluated once.
+     *
+     * @param algorithmRunId ID of the algorithm run
+     * @param requests       EvaluatorRequests
+     * @return EvaluatorResponses in the same order as the requests
+     */
+    private List<Message> evaluate(String algorithmRunId, List<Message> requests) {
+        LruCache<Long, TreeHash.Key> hashes = solutions.get(algorithmRunId);
+        ProblemDefinition problem = problems.get(algorithmRunId);
+        LruCache<TreeHash.Key, Double> cache = problem != null ? qualities.get(problem) : null;
+        if (hashes == null || cache == null) { // run was not configured through this worker
+            return worker.operateBatch(algorithmRunId, requests);
+        }
+
+        Message[] responses = new Message[requests.size()];
+        TreeHash.Key[] requestHashes = new TreeHash.Key[requests.size()];
+        List<Message> missed = new ArrayList<>();
+        List<Integer> missedIndices = new ArrayList<>();
+        Map<TreeHash.Key, Integer> missedHashes = new HashMap<>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            EvaluatorRequest request = (EvaluatorRequest) requests.get(i);
+            TreeHash.Key hash = hashes.get(request.getSolutionId());
+            requestHashes[i] = hash;
+            Double quality = hash != null ? cache.get(hash) : null;
+            if (quality != null) {
+                responses[i] = EvaluatorResponse.newBuilder()
+                        .setSolutionId(request.getSolutionId())
+                        .setQuality(quality).build();
+                hits.incrementAndGet();
+            } else if (hash == null || missedHashes.putIfAbsent(hash, i) == null) {
+                missed.add(request);
+                missedIndices.add(i);
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet(); // answered with the quality of the identical tree, see below
+            }
+        }
+
+        if (!missed.isEmpty()) {
+            List<Message> evaluated = worker.operateBatch(algorithmRunId, missed);
+            for (int j = 0; j < evaluated.size(); j++) {
+                int i = missedIndices.get(j);
+                responses[i] = evaluated.get(j);
+                if (requestHashes[i] != null && evaluated.get(j) instanceof EvaluatorResponse) {
+                    cache.put(requestHashes[i], ((EvaluatorResponse) evaluated.get(j)).getQuality());
+                }
+            }
+        }
+
+        //  Identical trees within the requests
+        for (int i = 0; i < responses.length; i++) {
+            if (responses[i] == null) {
+                Message evaluated = responses[missedHashes.get(requestHashes[i])];
+                responses[i] = evaluated instanceof EvaluatorResponse
+                        ? ((EvaluatorResponse) evaluated).toBuilder()
+                            .setSolutionId(((EvaluatorRequest) requests.get(i)).getSolutionId()).build()
+                        : evaluated;
+            }
+        }
+
+        List<Message> result = new ArrayList<>(responses.length);
+        Collections.addAll(result, responses);
+        return result;
+    }
+
+    /**
+     * Remembers the key of the tree of a created, crossed or mutated solution.
+     *
+     * @param algorithmRunId ID of the algorithm run
+     * @param response       response of an operator
+     */
+    private void record(String algorithmRunId, Message response) {
+        LruCache<Long, TreeHash.Key> hashes = solutions.get(algorithmRunId);
+        if (hashes == null) {
+            return;
+        }
+
+        if (response instanceof SolutionCreatorResponse) {
+            SolutionCreatorResponse created = (SolutionCreatorResponse) response;
+            record(hashes, created.getSolutionId(), created.hasTree() ? created.getTree() : null,
+                    created.hasPackedTree() ? created.getPackedTree() : null);
+        } else if (response instanceof CrossoverResponse) {
+            CrossoverResponse crossed = (CrossoverResponse) response;
+            record(hashes, crossed.getChildSolutionId(), crossed.hasTree() ? crossed.getTree() : null,
+                    crossed.hasPackedTree() ? crossed.getPackedTree() : null);
+        } else if (response instanceof ManipulatorResponse) {
+            ManipulatorResponse mutated = (ManipulatorResponse) response;
+            record(hashes, mutated.getManipulatedSolutionId(), mutated.hasTree() ? mutated.getTree() : null,
+                    mutated.hasPackedTree() ? mutated.getPackedTree() : null);
+        }
+    }
+
+    /**
+     * @param hashes     tree keys of the algorithm run
+     * @param solutionId ID of the solution
+     * @param tree       tree of the solution, or null
+     * @param packedTree tree of the solution in the PackedTree encoding, or null
+     */
+    private static void record(LruCache<Long, TreeHash.Key> hashes, long solutionId, TreeNode tree,
+                               PackedTree packedTree) {
+        if (tree != null) {
+            hashes.put(solutionId, TreeHash.key(tree));
+        } else if (packedTree != null) {
+            hashes.put(solutionId, TreeHash.key(packedTree));
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public ExternalOptimizationWorker getWorker() {
+        return worker;
+    }
+
+    public void setWorker(ExternalOptimizationWorker worker) {
+        this.worker = worker;
+    }
+
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(Integer cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public Integer getSolutionsPerRun() {
+        return solutionsPerRun;
+    }
+
+    public void setSolutionsPerRun(Integer solutionsPerRun) {
+        this.solutionsPerRun = solutionsPerRun;
+    }
+
+    /**
+     * Thread-safe map that evicts the least recently used entry when it is full.
+     */
+    private static class LruCache<K, V> {
+        private final LinkedHashMap<K, V> map;
+
+        LruCache(int capacity) {
+            map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized V get(K key) {
+            return map.get(key);
+        }
+
+        synchronized void put(K key, V value) {
+            map.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.worker;
+
+/**
+ * Metrics of the quality cache of a worker, exposed via JMX (at.fh.hagenberg.aist.hlc:type=Cache),
+ * named by the identity of the worker like its {@link WorkerMetricsMXBean}.
+ */
+public interface CachingOptimizationWorkerMXBean {
+
+    /**
+     * @return number of evaluations answered from the cache
+     */
+    long getHits();
+
+    /**
+     * @return number of evaluations done by the wrapped worker
+     */
+    long getMisses();
+
+    /**
+     * @return share of evaluations answered from the cache
+     */
+    double getHitRate();
+}
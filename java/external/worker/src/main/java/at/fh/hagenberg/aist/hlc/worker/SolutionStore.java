@@ -0,0 +1,555 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+
+package at.fh.hagenberg.aist.hlc.worker;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store for the solutions of external workers, which must keep every solution by its ID, as later requests
+ * (EvaluatorRequest, CrossoverRequest, ManipulatorRequest) refer to solutions by ID only.
+ * <p>
+ * Solutions are stored serialized outside of the heap, so large populations neither grow the heap nor the GC pauses:
+ * in direct buffers, or in memory-mapped files if a {@link #directory} is set. Each algorithm run has its own
+ * segments and a primitive index from solution ID to location, all of them are freed at once by {@link #release}.
+ * <p>
+ * Solutions that were not stored or read during the last {@link #maxAge} generations are evicted when a run
+ * advances to the next generation, either explicitly ({@link #nextGeneration}) or after {@link #generationSize}
+ * stored solutions. Segments are compacted once most of their bytes belong to evicted or replaced solutions.
+ * <p>
+ * All methods are thread-safe, operations on the same algorithm run are serialized.
+ */
+public class SolutionStore {
+
+    private int segmentSize = 16 * 1024 * 1024;
+    private String directory;
+    private int maxAge = 2;
+    private int generationSize = 0;
+
+    private final Map<String, RunStore> runs = new ConcurrentHashMap<>();
+    //  Files of mapped segments that could not be deleted while mapped (e.g. on Windows), by segment
+    private final Map<ByteBuffer, Path> mappedFiles = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * Stores a solution, replacing a solution with the same ID.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param solutionId:     ID of the solution.
+     * @param solution:       The solution, e.g. a TreeNode or PackedTree.
+     */
+    public void put(String algorithmRunId, long solutionId, Message solution) {
+        RunStore run = runs.computeIfAbsent(algorithmRunId, id -> new RunStore());
+        synchronized (run) {
+            if (run.released) {
+                //  Released concurrently, start over with a new store
+                put(algorithmRunId, solutionId, solution);
+                return;
+            }
+            run.put(solutionId, solution);
+        }
+    }
+
+    /**
+     * Reads a solution and marks it as referenced in the current generation.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param solutionId:     ID of the solution.
+     * @param parser:         Parser of the type of the solution, e.g. PackedTree.parser().
+     * @return The solution, or null if it is not stored.
+     * @throws InvalidProtocolBufferException if the solution was not stored with the same type.
+     */
+    public <T extends Message> T get(String algorithmRunId, long solutionId, Parser<T> parser) throws InvalidProtocolBufferException {
+        RunStore run = runs.get(algorithmRunId);
+        if (run == null) {
+            return null;
+        }
+        synchronized (run) {
+            return run.released ? null : run.get(solutionId, parser);
+        }
+    }
+
+    /**
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param solutionId:     ID of the solution.
+     * @return Whether the solution is stored.
+     */
+    public boolean contains(String algorithmRunId, long solutionId) {
+        RunStore run = runs.get(algorithmRunId);
+        if (run == null) {
+            return false;
+        }
+        synchronized (run) {
+            return !run.released && run.index.find(solutionId) >= 0;
+        }
+    }
+
+    /**
+     * Removes a solution.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @param solutionId:     ID of the solution.
+     * @return Whether the solution was stored.
+     */
+    public boolean remove(String algorithmRunId, long solutionId) {
+        RunStore run = runs.get(algorithmRunId);
+        if (run == null) {
+            return false;
+        }
+        synchronized (run) {
+            return !run.released && run.remove(solutionId);
+        }
+    }
+
+    /**
+     * Advances an algorithm run to the next generation, evicting the solutions that were not referenced
+     * during the last {@link #maxAge} generations.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     * @return Number of evicted solutions.
+     */
+    public int nextGeneration(String algorithmRunId) {
+        RunStore run = runs.get(algorithmRunId);
+        if (run == null) {
+            return 0;
+        }
+        synchronized (run) {
+            return run.released ? 0 : run.nextGeneration();
+        }
+    }
+
+    /**
+     * Frees all solutions of an algorithm run, e.g. when the run is stopped.
+     *
+     * @param algorithmRunId: ID of the algorithm run.
+     */
+    public void release(String algorithmRunId) {
+        RunStore run = runs.remove(algorithmRunId);
+        if (run != null) {
+            synchronized (run) {
+                run.release();
+            }
+        }
+    }
+
+    /**
+     * @return Number of stored solutions of all algorithm runs.
+     */
+    public long getSolutions() {
+        long solutions = 0;
+        for (RunStore run : runs.values()) {
+            synchronized (run) {
+                solutions += run.index.size;
+            }
+        }
+        return solutions;
+    }
+
+    /**
+     * @return Bytes allocated outside of the heap for all algorithm runs.
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (RunStore run : runs.values()) {
+            synchronized (run) {
+                bytes += run.allocatedBytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Segments and index of an algorithm run. Each record in a segment is the length of the solution
+     * followed by the serialized solution, the index maps solution IDs to segment (high 32 bits) and offset.
+     */
+    private class RunStore {
+        private List<ByteBuffer> segments = new ArrayList<>();
+        private ByteBuffer current;
+        private SolutionIndex index = new SolutionIndex(1024);
+        private int generation;
+        private int stored;
+        private long allocatedBytes;
+        private long usedBytes;
+        private long garbageBytes;
+        private boolean released;
+
+        private void put(long solutionId, Message solution) {
+            int length = solution.getSerializedSize();
+            int location = allocate(length);
+
+            ByteBuffer record = current.duplicate();
+            record.position(location);
+            record.putInt(length);
+            CodedOutputStream out = CodedOutputStream.newInstance(record.slice());
+            try {
+                solution.writeTo(out);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            int slot = index.find(solutionId);
+            if (slot >= 0) {
+                garbageBytes += recordLength(index.locations[slot]);
+            }
+            index.put(solutionId, (long) (segments.size() - 1) << 32 | location, generation);
+
+            if (generationSize > 0 && ++stored >= generationSize) {
+                nextGeneration();
+            }
+        }
+
+        private <T extends Message> T get(long solutionId, Parser<T> parser) throws InvalidProtocolBufferException {
+            int slot = index.find(solutionId);
+            if (slot < 0) {
+                return null;
+            }
+            index.generations[slot] = generation;
+            return parser.parseFrom(record(index.locations[slot]));
+        }
+
+        private boolean remove(long solutionId) {
+            int slot = index.find(solutionId);
+            if (slot < 0) {
+                return false;
+            }
+            garbageBytes += recordLength(index.locations[slot]);
+            index.remove(slot);
+            return true;
+        }
+
+        private int nextGeneration() {
+            generation++;
+            stored = 0;
+
+            int evicted = 0;
+            int slot = 0;
+            while (slot < index.keys.length) {
+                //  After a removal the slot holds the next entry of the probe sequence, so it is checked again
+                if (index.locations[slot] != SolutionIndex.EMPTY && generation - index.generations[slot] > maxAge) {
+                    garbageBytes += recordLength(index.locations[slot]);
+                    index.remove(slot);
+                    evicted++;
+                } else {
+                    slot++;
+                }
+            }
+
+            if (garbageBytes > usedBytes / 2) {
+                compact();
+            }
+            return evicted;
+        }
+
+        /**
+         * Copies the solutions that are still stored into new segments and frees the old ones.
+         */
+        private void compact() {
+            List<ByteBuffer> old = segments;
+            segments = new ArrayList<>();
+            current = null;
+            allocatedBytes = 0;
+            usedBytes = 0;
+            garbageBytes = 0;
+
+            for (int slot = 0; slot < index.keys.length; slot++) {
+                long location = index.locations[slot];
+                if (location != SolutionIndex.EMPTY) {
+                    ByteBuffer source = old.get((int) (location >>> 32)).duplicate();
+                    source.position((int) location);
+                    source.limit((int) location + Integer.BYTES + source.getInt((int) location));
+
+                    int target = allocate(source.remaining() - Integer.BYTES);
+                    ByteBuffer record = current.duplicate();
+                    record.position(target);
+                    record.put(source);
+                    index.locations[slot] = (long) (segments.size() - 1) << 32 | target;
+                }
+            }
+
+            old.forEach(SolutionStore.this::free);
+        }
+
+        private void release() {
+            released = true;
+            segments.forEach(SolutionStore.this::free);
+            segments = new ArrayList<>();
+            current = null;
+            index = new SolutionIndex(0);
+            allocatedBytes = 0;
+            usedBytes = 0;
+            garbageBytes = 0;
+        }
+
+        /**
+         * Reserves space for a record, a new segment is started if the current one is full.
+         *
+         * @param length: Length of the solution.
+         * @return Offset of the record in the current segment.
+         */
+        private int allocate(int length) {
+            int size = Integer.BYTES + length;
+            if (current == null || current.remaining() < size) {
+                current = createSegment(Math.max(segmentSize, size));
+                segments.add(current);
+                allocatedBytes += current.capacity();
+            }
+            int location = current.position();
+            current.position(location + size);
+            usedBytes += size;
+            return location;
+        }
+
+        private ByteBuffer record(long location) {
+            ByteBuffer record = segments.get((int) (location >>> 32)).duplicate();
+            int offset = (int) location;
+            record.position(offset + Integer.BYTES);
+            record.limit(offset + Integer.BYTES + record.getInt(offset));
+            return record;
+        }
+
+        private int recordLength(long location) {
+            return Integer.BYTES + segments.get((int) (location >>> 32)).getInt((int) location);
+        }
+    }
+
+    /**
+     * Creates a segment: a direct buffer, or a memory-mapped temporary file in the directory.
+     * The file is deleted right away, the mapping stays valid until the segment is freed. If the file can not be
+     * deleted while it is mapped (e.g. on Windows), it is deleted when the segment is freed, or else on exit.
+     */
+    private ByteBuffer createSegment(int size) {
+        if (directory == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        try {
+            Path file = Files.createTempFile(Paths.get(directory), "hlc-solutions-", ".seg");
+            ByteBuffer segment;
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+                mappedFiles.put(segment, file);
+            }
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not map segment in " + directory, e);
+        }
+    }
+
+    //  Frees direct and mapped buffers right away instead of when they are garbage collected
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //  Java 8, see unmap
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    /**
+     * Frees a segment, best effort: if the JVM does not allow it, the segment is freed when it is garbage collected.
+     * Segments must not be accessed afterwards, which the lock of the run ensures.
+     */
+    private void free(ByteBuffer segment) {
+        if (!segment.isDirect()) {
+            return;
+        }
+        unmap(segment);
+
+        Path file = mappedFiles.remove(segment);
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                //  Still mapped, deleted on exit
+            }
+        }
+    }
+
+    private static void unmap(ByteBuffer segment) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, segment);
+            } else { // Java 8
+                Method cleanerMethod = segment.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(segment);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            //  Freed by the garbage collector
+        }
+    }
+
+    /**
+     * Open-addressing hash map from solution ID to location with linear probing, without boxing.
+     * Removal shifts the following entries of the probe sequence back, so no tombstones are needed.
+     */
+    private static class SolutionIndex {
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private long[] locations;
+        private int[] generations;
+        private int size;
+
+        private SolutionIndex(int capacity) {
+            int slots = Integer.highestOneBit(Math.max(2, capacity * 2 - 1));
+            keys = new long[slots];
+            locations = new long[slots];
+            generations = new int[slots];
+            Arrays.fill(locations, EMPTY);
+        }
+
+        private int slot(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key & (keys.length - 1);
+        }
+
+        /**
+         * @return The slot of the key, or -1 if the key is not stored.
+         */
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key); locations[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void put(long key, long location, int generation) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = slot(key);
+            while (locations[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (locations[slot] == EMPTY) {
+                size++;
+            }
+            keys[slot] = key;
+            locations[slot] = location;
+            generations[slot] = generation;
+        }
+
+        private void remove(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; locations[next] != EMPTY; next = (next + 1) & mask) {
+                //  Move the entry into the hole unless its home slot lies cyclically in (hole, next]
+                int home = slot(keys[next]);
+                if (hole <= next ? (home <= hole || home > next) : (home <= hole && home > next)) {
+                    keys[hole] = keys[next];
+                    locations[hole] = locations[next];
+                    generations[hole] = generations[next];
+                    hole = next;
+                }
+            }
+            locations[hole] = EMPTY;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldLocations = locations;
+            int[] oldGenerations = generations;
+            keys = new long[oldKeys.length * 2];
+            locations = new long[oldKeys.length * 2];
+            generations = new int[oldKeys.length * 2];
+            Arrays.fill(locations, EMPTY);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldLocations[i] != EMPTY) {
+                    put(oldKeys[i], oldLocations[i], oldGenerations[i]);
+                }
+            }
+        }
+    }
+
+    public Integer getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(Integer segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public Integer getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Integer maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public Integer getGenerationSize() {
+        return generationSize;
+    }
+
+    public void setGenerationSize(Integer generationSize) {
+        this.generationSize = generationSize;
+    }
+}
@@ -22,8 +22,21 @@ import org.zeromq.*;
 import org.zeromq.ZMQ.Poller;
 import org.zeromq.ZMQ.Socket;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * Queue that implements the Paranoid Pirate Pattern, based on http://zguide.zeromq.org/java:ppqueue.
@@ -31,9 +44,6 @@ import java.util.UUID;
  * @author Daniel Dorfmeister on 2019-06-19
  */
 public class Worker {
-    private static boolean logMessages = true;
-    private static boolean logResponses = false;
-
     private ExternalOptimizationWorker worker;
     private ConfigurationManagementWorker configWorker;
     private Logger logger;
@@ -44,13 +54,16 @@ public class Worker {
     private int intervalInit;
     private int heartbeatInterval;
     private int heartbeatLiveness;
+    private int concurrency = 1;
+    private double messageLogSampleRate = 0;
+    private WorkerMetrics metrics;
 
-    private void logMessage(Message message) {
-        if (!logMessages)
-            return;
+    //  Encoding of the trees requested by each algorithm run, NESTED if missing
+    private Map<String, TreeEncoding> treeEncodings = new ConcurrentHashMap<>();
 
-        logger.info("====== " + message.getClass().getSimpleName() + " ======");
-        logger.info(message.toString());
+    private void logMessage(Message message) {
+        logger.debug("====== " + message.getClass().getSimpleName() + " ======");
+        logger.debug(message.toString());
     }
 
     /**
@@ -70,35 +83,76 @@ public class Worker {
         socket.setIdentity(UuidHelper.getBytesFromUUID(uuid));
         socket.connect(endpoint);
 
-        //  Tell queue we're ready for work
+        //  Tell queue we're ready for work, the configuration of the worker is sent along (not part of PPP)
         logger.info("worker ready");
-        ZFrame frame = new ZFrame(ParanoidPirateProtocolConstants.PPP_READY);
-        frame.send(socket, 0);
-        frame.destroy();
-
         WorkerConfiguration config = WorkerConfiguration.newBuilder()
                 .addAllSupportedLanguages(supportedLanguages)
                 .setIsConfigWorker(configWorker != null)
+                .setConcurrency(concurrency)
                 .build();
-        frame = new ZFrame(config.toByteArray());
-        frame.send(socket, 0);
-        frame.destroy();
+        ZMsg msg = new ZMsg();
+        msg.add(ParanoidPirateProtocolConstants.PPP_READY);
+        msg.add(config.toByteArray());
+        msg.send(socket);
 
         return socket;
     }
 
+    /**
+     * Helper function that returns a poller for the broker socket (index 0) and the replies socket (index 1).
+     *
+     * @param ctx:     ZeroMQ context
+     * @param worker:  Socket connected to the broker.
+     * @param replies: Socket that receives the replies of the executor threads.
+     * @return The poller.
+     */
+    private Poller createPoller(ZContext ctx, Socket worker, Socket replies) {
+        Poller poller = ctx.createPoller(2);
+        poller.register(worker, Poller.POLLIN);
+        poller.register(replies, Poller.POLLIN);
+        return poller;
+    }
+
     /**
      * Implements the worker side of the Paranoid Pirate Protocol (PPP).
+     * Requests are processed by a pool of {@link #concurrency} threads, so this thread keeps heartbeating
+     * while operators are running.
      */
     public void work() {
+        metrics = new WorkerMetrics(concurrency);
+        List<ObjectName> metricsNames = Collections.emptyList();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "hlc-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
         try (ZContext ctx = new ZContext()) {
             Socket worker = createSocket(ctx, brokerBackend, supportedLanguages);
-
-            Poller poller = ctx.createPoller(1);
-            poller.register(worker, Poller.POLLIN);
-
-            //  If liveness hits zero, queue is considered disconnected
-            int liveness = heartbeatLiveness;
+            metricsNames = registerMetrics(worker);
+
+            //  ZeroMQ sockets must not be shared between threads, so the executor threads
+            //  push their replies to this socket and they are forwarded to the broker from here
+            String repliesEndpoint = "inproc://replies-" + UUID.randomUUID();
+            Socket replies = ctx.createSocket(ZMQ.PULL);
+            replies.bind(repliesEndpoint);
+            ThreadLocal<Socket> replySockets = ThreadLocal.withInitial(() -> {
+                Socket socket = ctx.createSocket(ZMQ.PUSH);
+                socket.connect(repliesEndpoint);
+                return socket;
+            });
+
+            Poller poller = createPoller(ctx, worker, replies);
+
+            //  Algorithm runs that are being configured, by algorithm run ID
+            Map<String, CompletableFuture<Void>> configuring = new ConcurrentHashMap<>();
+
+            //  If the broker sent nothing for heartbeatLiveness heartbeat intervals, queue is considered disconnected.
+            //  Replies of the executor threads wake the poller too, so the time since the last message of the broker
+            //  counts, not the number of polls that timed out
+            long brokerAliveAt = System.currentTimeMillis();
+            int missed = 0;
             int interval = intervalInit;
 
             //  Send out heartbeats at regular intervals
@@ -109,24 +163,27 @@ public class Worker {
                 if (rc == -1)
                     break; //  Interrupted
 
+                //  Forward replies of the executor threads
+                if (poller.pollin(1)) {
+                    ZMsg reply = ZMsg.recvMsg(replies);
+                    if (reply == null)
+                        break; //  Interrupted
+                    reply.send(worker);
+                }
+
                 if (poller.pollin(0)) {
                     ZMsg msg = ZMsg.recvMsg(worker);
                     if (msg == null)
                         break; //  Interrupted
 
                     if (msg.size() >= 3) { // frames: ZMQ ID, empty, [algorithm run ID], message
-                        ZFrame request = msg.removeLast();
-
-                        if (msg.size() == 3) { // frames: ZMQ ID, empty, algorithm run ID
-                            String algorithmRunId = msg.removeLast().toString();
-                            msg.add(processRequest(request, algorithmRunId));
-                        } else { // frames: ZMQ ID, empty
-                            msg.add(processRequest(request));
-                        }
-
-                        logger.info("normal reply");
-                        msg.send(worker);
-                        liveness = heartbeatLiveness;
+                        metrics.requestScheduled();
+                        schedule(msg, () -> {
+                            processMessage(msg).send(replySockets.get());
+                            metrics.requestCompleted();
+                        }, executor, configuring);
+                        brokerAliveAt = System.currentTimeMillis();
+                        missed = 0;
                     } else if (msg.size() == 1) { // frames: signal (HEARTBEAT)
                         //  When we get a heartbeat message from the broker, it means the broker was (recently) alive,
                         //  so reset our liveness indicator:
@@ -134,7 +191,8 @@ public class Worker {
                         String frameData = new String(frame.getData(), ZMQ.CHARSET);
 
                         if (ParanoidPirateProtocolConstants.PPP_HEARTBEAT.equals(frameData)) {
-                            liveness = heartbeatLiveness;
+                            brokerAliveAt = System.currentTimeMillis();
+                            missed = 0;
                         } else {
                             logger.error("invalid message: " + msg);
                         }
@@ -145,7 +203,13 @@ public class Worker {
                     }
 
                     interval = intervalInit;
-                } else if (--liveness == 0) {
+                }
+
+                long silent = (System.currentTimeMillis() - brokerAliveAt) / heartbeatInterval;
+                for (; missed < silent; missed++) {
+                    metrics.heartbeatMissed();
+                }
+                if (missed >= heartbeatLiveness) {
                     //  If the broker hasn't sent us heartbeats in a while,
                     //  destroy the socket and reconnect. This is the simplest
                     //  most brutal way of discarding any messages we might have
@@ -163,59 +227,172 @@ public class Worker {
                         interval *= 2;
                     }
 
+                    poller.close();
                     ctx.destroySocket(worker);
-                    poller.unregister(worker);
                     worker = createSocket(ctx, brokerBackend, supportedLanguages);
-                    poller.register(worker, Poller.POLLIN);
-                    liveness = heartbeatLiveness;
+                    poller = createPoller(ctx, worker, replies);
+                    unregisterMetrics(metricsNames);
+                    metricsNames = registerMetrics(worker);
+                    metrics.reconnected();
+                    brokerAliveAt = System.currentTimeMillis();
+                    missed = 0;
                 }
 
                 //  Send heartbeat to queue if it's time
                 if (System.currentTimeMillis() > heartbeatAt) {
                     long now = System.currentTimeMillis();
                     heartbeatAt = now + heartbeatInterval;
-                    logger.info("worker heartbeat");
                     ZFrame frame = new ZFrame(ParanoidPirateProtocolConstants.PPP_HEARTBEAT);
                     frame.send(worker, 0);
                 }
             }
-        } catch (InvalidProtocolBufferException ex) {
-            logger.error(ex);
+        } finally {
+            executor.shutdownNow();
+            unregisterMetrics(metricsNames);
         }
     }
 
     /**
-     * Processes messages from HeuristicLab.TruffleConnector.
+     * Registers the metrics of the worker as MXBean, see {@link WorkerMetricsMXBean},
+     * and the metrics of the cache if the worker caches qualities, see {@link CachingOptimizationWorkerMXBean}.
+     * The MXBeans are named by the identity of the socket, as the broker reports the utilisation of the worker.
      *
-     * @param request: The frame to process.
-     * @return The frame to respond.
-     * @throws InvalidProtocolBufferException
+     * @param worker: Socket connected to the broker.
+     * @return The names of the registered MXBeans.
+     */
+    private List<ObjectName> registerMetrics(Socket worker) {
+        UUID identity = UuidHelper.getUUIDFromBytes(worker.getIdentity());
+        List<ObjectName> names = new ArrayList<>();
+        try {
+            ObjectName name = new ObjectName("at.fh.hagenberg.aist.hlc:type=Worker,name=" + identity);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            names.add(name);
+            if (this.worker instanceof CachingOptimizationWorker) {
+                name = new ObjectName("at.fh.hagenberg.aist.hlc:type=Cache,name=" + identity);
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this.worker, name);
+                names.add(name);
+            }
+        } catch (JMException e) {
+            logger.warn("could not register metrics: " + e.getMessage());
+        }
+        return names;
+    }
+
+    private void unregisterMetrics(List<ObjectName> names) {
+        for (ObjectName name : names) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                logger.warn("could not unregister metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Schedules the processing of a request on the executor. Requests of an algorithm run that is being configured
+     * are processed after the StartAlgorithmRequest, as they depend on the state it creates.
+     *
+     * @param msg:         The request (frames: ZMQ ID, empty, [algorithm run ID], message).
+     * @param task:        Processes the request.
+     * @param executor:    Executor of the worker.
+     * @param configuring: Pending StartAlgorithmRequests by algorithm run ID.
+     */
+    private void schedule(ZMsg msg, Runnable task, ExecutorService executor, Map<String, CompletableFuture<Void>> configuring) {
+        if (msg.size() != 4) { // frames: ZMQ ID, empty, message
+            executor.execute(task);
+            return;
+        }
+
+        String algorithmRunId = msg.toArray()[2].toString();
+        String type = "";
+        try {
+            type = WrapperHelper.getTypeName(msg.getLast().getData());
+        } catch (InvalidProtocolBufferException e) {
+            //  processMessage replies with an error
+        }
+
+        CompletableFuture<Void> configure = configuring.get(algorithmRunId);
+        if (WrapperHelper.is(type, StartAlgorithmRequest.getDefaultInstance())) {
+            CompletableFuture<Void> future = configure == null
+                    ? CompletableFuture.runAsync(task, executor)
+                    : configure.handleAsync((v, e) -> { task.run(); return null; }, executor);
+            configuring.put(algorithmRunId, future);
+            future.whenComplete((v, e) -> configuring.remove(algorithmRunId, future));
+        } else if (configure != null) {
+            configure.handleAsync((v, e) -> { task.run(); return null; }, executor);
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Processes a request forwarded by the broker. Runs on the executor threads.
+     *
+     * @param msg: The request (frames: ZMQ ID, empty, [algorithm run ID], message).
+     * @return The reply (frames: ZMQ ID, empty, message).
      */
-    private ZFrame processRequest(ZFrame request) throws InvalidProtocolBufferException {
-        return processRequest(request, null);
+    private ZMsg processMessage(ZMsg msg) {
+        ZFrame request = msg.removeLast();
+        String algorithmRunId = null;
+        if (msg.size() == 3) { // frames: ZMQ ID, empty, algorithm run ID
+            algorithmRunId = msg.removeLast().toString();
+        }
+
+        long start = System.nanoTime();
+        long requestId = 0;
+        try {
+            Wrapper wrapper = Wrapper.parseFrom(request.getData());
+            requestId = wrapper.getRequestId();
+            ZFrame reply = processRequest(wrapper, algorithmRunId);
+            metrics.requestProcessed(wrapper.getMessage().getTypeUrl(), request.size(), reply.size(), System.nanoTime() - start);
+            msg.add(reply);
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            //  Always reply, otherwise the broker would wait for this request forever
+            logger.error("could not process request: " + e);
+            metrics.error();
+            Wrapper wrapper = Wrapper.newBuilder()
+                    .setMessage(Any.pack(Empty.getDefaultInstance()))
+                    .setRequestId(requestId)
+                    .build();
+            msg.add(wrapper.toByteArray());
+        }
+        return msg;
     }
 
     /**
      * Processes messages from HeuristicLab.TruffleConnector.
      *
-     * @param request:        The frame to process.
+     * @param request:        The request to process.
      * @param algorithmRunId: The ID of the algorithm run the request is associated with.
-     * @return The frame to respond.
+     * @return The frame to respond, with the request ID of the request.
      * @throws InvalidProtocolBufferException
      */
-    private ZFrame processRequest(ZFrame request, String algorithmRunId) throws InvalidProtocolBufferException {
-        Any any = Wrapper.parseFrom(request.getData()).getMessage();
-        Message response = processAnyMessage(any, algorithmRunId);
-        Wrapper wrapper = Wrapper.newBuilder().setMessage(Any.pack(response)).build();
+    private ZFrame processRequest(Wrapper request, String algorithmRunId) throws InvalidProtocolBufferException {
+        Message response = processAnyMessage(request.getMessage(), algorithmRunId);
+        Wrapper wrapper = Wrapper.newBuilder()
+                .setMessage(Any.pack(response))
+                .setRequestId(request.getRequestId())
+                .build();
         return new ZFrame(wrapper.toByteArray());
     }
 
-    private Message processAnyMessage(Any any, String algorithmRunId) throws InvalidProtocolBufferException {
+    /**
+     * Dispatches a message to the external worker (package-private for the benchmarks).
+     *
+     * @param any:            The message.
+     * @param algorithmRunId: The ID of the algorithm run the message is associated with.
+     * @return The response of the external worker.
+     * @throws InvalidProtocolBufferException
+     */
+    Message processAnyMessage(Any any, String algorithmRunId) throws InvalidProtocolBufferException {
         Message response = Empty.getDefaultInstance();
 
+        //  Messages are logged for a sample of the requests only, decided once so requests and responses match
+        boolean log = messageLogSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < messageLogSampleRate;
+
         if (any.is(ConfigurationRequest.class)) {
             ConfigurationRequest request = any.unpack(ConfigurationRequest.class);
-            logMessage(request);
+            if (log) logMessage(request);
             if (configWorker != null) {
                 response = configWorker.getConfiguration(request);
             } else {
@@ -223,12 +400,26 @@ public class Worker {
             }
         } else if (any.is(StartAlgorithmRequest.class)) {
             StartAlgorithmRequest request = any.unpack(StartAlgorithmRequest.class);
-            logMessage(request);
+            if (log) logMessage(request);
+            if (request.getTreeEncoding() == TreeEncoding.NESTED) {
+                treeEncodings.remove(algorithmRunId);
+            } else {
+                treeEncodings.put(algorithmRunId, request.getTreeEncoding());
+            }
             response = worker.configure(algorithmRunId, request);
         } else if (any.is(StopAlgorithmRequest.class)) {
             StopAlgorithmRequest request = any.unpack(StopAlgorithmRequest.class);
-            logMessage(request);
+            if (log) logMessage(request);
             worker.shutdown(algorithmRunId, request);
+            treeEncodings.remove(algorithmRunId);
+        } else if (BatchMessages.isBatchRequest(any)) { // batches of operators
+            List<Message> requests = BatchMessages.unpackRequests(any);
+            if (log) requests.forEach(this::logMessage);
+            TreeEncoding encoding = getTreeEncoding(algorithmRunId);
+            List<Message> responses = worker.operateBatch(algorithmRunId, requests).stream()
+                    .map(r -> encodeTree(r, encoding))
+                    .collect(Collectors.toList());
+            response = BatchMessages.packResponses(any, responses);
         } else { // operators
             String typeUrl = any.getTypeUrl();
             String className = at.fh.hagenberg.aist.hlc.core.messages.StartAlgorithm.class.getPackage().getName() +
@@ -237,20 +428,59 @@ public class Worker {
             try {
                 Class clazz = Class.forName(className);
                 Message message = any.unpack(clazz);
-                logMessage(message);
-                response = worker.operate(algorithmRunId, message);
+                if (log) logMessage(message);
+                response = encodeTree(worker.operate(algorithmRunId, message), getTreeEncoding(algorithmRunId));
             } catch (ClassNotFoundException e) {
                 throw new UnsupportedOperationException("Message of type " + typeUrl + " could not be processed.");
             }
         }
 
-        if (logResponses) {
+        if (log) {
             logMessage(response);
         }
 
         return response;
     }
 
+    private TreeEncoding getTreeEncoding(String algorithmRunId) {
+        return algorithmRunId == null ? TreeEncoding.NESTED : treeEncodings.getOrDefault(algorithmRunId, TreeEncoding.NESTED);
+    }
+
+    /**
+     * Converts the tree of a SolutionCreator, Crossover or Manipulator response to the encoding requested by the
+     * algorithm run, so external workers can return either encoding.
+     *
+     * @param response: Response of the external worker.
+     * @param encoding: Encoding requested by the algorithm run.
+     * @return The response with the tree in the requested encoding.
+     */
+    private Message encodeTree(Message response, TreeEncoding encoding) {
+        boolean packed = encoding == TreeEncoding.PACKED;
+        if (response instanceof SolutionCreatorResponse) {
+            SolutionCreatorResponse created = (SolutionCreatorResponse) response;
+            if (packed && created.hasTree()) {
+                return created.toBuilder().clearTree().setPackedTree(FlatTree.of(created.getTree()).toPackedTree()).build();
+            } else if (!packed && created.hasPackedTree()) {
+                return created.toBuilder().clearPackedTree().setTree(FlatTree.of(created.getPackedTree()).toTreeNode()).build();
+            }
+        } else if (response instanceof CrossoverResponse) {
+            CrossoverResponse crossed = (CrossoverResponse) response;
+            if (packed && crossed.hasTree()) {
+                return crossed.toBuilder().clearTree().setPackedTree(FlatTree.of(crossed.getTree()).toPackedTree()).build();
+            } else if (!packed && crossed.hasPackedTree()) {
+                return crossed.toBuilder().clearPackedTree().setTree(FlatTree.of(crossed.getPackedTree()).toTreeNode()).build();
+            }
+        } else if (response instanceof ManipulatorResponse) {
+            ManipulatorResponse mutated = (ManipulatorResponse) response;
+            if (packed && mutated.hasTree()) {
+                return mutated.toBuilder().clearTree().setPackedTree(FlatTree.of(mutated.getTree()).toPackedTree()).build();
+            } else if (!packed && mutated.hasPackedTree()) {
+                return mutated.toBuilder().clearPackedTree().setTree(FlatTree.of(mutated.getPackedTree()).toTreeNode()).build();
+            }
+        }
+        return response;
+    }
+
     public List<Long> getSupportedLanguages() {
         return supportedLanguages;
     }
@@ -299,6 +529,26 @@ public class Worker {
         this.heartbeatLiveness = heartbeatLiveness;
     }
 
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public Double getMessageLogSampleRate() {
+        return messageLogSampleRate;
+    }
+
+    public void setMessageLogSampleRate(Double messageLogSampleRate) {
+        this.messageLogSampleRate = messageLogSampleRate;
+    }
+
+    public WorkerMetrics getMetrics() {
+        return metrics;
+    }
+
     public ExternalOptimizationWorker getWorker() {
         return worker;
     }
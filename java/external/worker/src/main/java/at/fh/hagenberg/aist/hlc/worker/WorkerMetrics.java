@@ -0,0 +1,125 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.worker;
+
+import at.fh.hagenberg.aist.hlc.core.LatencyHistogram;
+import at.fh.hagenberg.aist.hlc.core.MessageStatistics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics collected by the worker and its executor threads and read via JMX. Recording does not allocate.
+ */
+public class WorkerMetrics implements WorkerMetricsMXBean {
+
+    private final MessageStatistics messages = new MessageStatistics();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong heartbeatMisses = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final int concurrency;
+
+    public WorkerMetrics(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Records a request that was received from the broker and scheduled.
+     */
+    public void requestScheduled() {
+        activeRequests.incrementAndGet();
+    }
+
+    /**
+     * Records a processed request.
+     * @param typeUrl:  Type URL of the request.
+     * @param bytesIn:  Size of the request.
+     * @param bytesOut: Size of the reply.
+     * @param nanos:    Time to process the request.
+     */
+    public void requestProcessed(String typeUrl, int bytesIn, int bytesOut, long nanos) {
+        MessageStatistics.Type type = messages.get(typeUrl);
+        type.received(bytesIn);
+        type.sent(bytesOut);
+        type.latency(nanos);
+    }
+
+    /**
+     * Records a request after its reply was sent, whether it was processed or not.
+     */
+    public void requestCompleted() {
+        activeRequests.decrementAndGet();
+    }
+
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    public void heartbeatMissed() {
+        heartbeatMisses.incrementAndGet();
+    }
+
+    public void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    @Override
+    public double getUtilisation() {
+        return (double) activeRequests.get() / concurrency;
+    }
+
+    @Override
+    public long getHeartbeatMisses() {
+        return heartbeatMisses.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        return messages.getCounts();
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        return messages.getLatencies();
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+        return messages.getBytesIn();
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+        return messages.getBytesOut();
+    }
+}
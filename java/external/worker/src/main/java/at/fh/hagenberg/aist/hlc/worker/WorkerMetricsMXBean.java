@@ -0,0 +1,71 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.worker;
+
+import at.fh.hagenberg.aist.hlc.core.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * Metrics of a worker, exposed via JMX (at.fh.hagenberg.aist.hlc:type=Worker).
+ */
+public interface WorkerMetricsMXBean {
+
+    /**
+     * @return number of requests processed concurrently at most
+     */
+    int getConcurrency();
+
+    /**
+     * @return number of requests being processed or waiting for an executor thread
+     */
+    int getActiveRequests();
+
+    /**
+     * @return ratio of active requests to concurrency
+     */
+    double getUtilisation();
+
+    /**
+     * @return number of heartbeat intervals without a message from the broker
+     */
+    long getHeartbeatMisses();
+
+    /**
+     * @return number of reconnects after the broker was considered disconnected
+     */
+    long getReconnects();
+
+    /**
+     * @return number of requests that could not be processed
+     */
+    long getErrors();
+
+    /**
+     * @return number of processed requests by message type
+     */
+    Map<String, Long> getRequestCounts();
+
+    /**
+     * @return time to process a request by message type, including (un)packing [usecs]
+     */
+    Map<String, LatencyHistogram.Snapshot> getLatencies();
+
+    /**
+     * @return bytes received from the broker by message type
+     */
+    Map<String, Long> getBytesIn();
+
+    /**
+     * @return bytes sent to the broker by message type of the request
+     */
+    Map<String, Long> getBytesOut();
+}
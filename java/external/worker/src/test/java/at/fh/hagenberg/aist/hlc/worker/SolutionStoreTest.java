@@ -0,0 +1,201 @@
+/*
+ *
+ *  * Copyright (c) 2022 the original author or authors.
+ *  * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *  *
+ *  * This Source Code Form is subject to the terms of the Mozilla Public
+ *  * License, v. 2.0. If a copy of the MPL was not distributed with this
+ *  * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ */
+package at.fh.hagenberg.aist.hlc.worker;
+
+import at.fh.hagenberg.aist.hlc.core.messages.PackedTree;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class SolutionStoreTest {
+
+    private static final String RUN = "run";
+
+    private static PackedTree tree(int size) {
+        PackedTree.Builder builder = PackedTree.newBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.addSymbolIds(i + 1);
+            builder.addArities(i < size - 1 ? 1 : 0);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testPutAndGet() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.put(RUN, 1, tree(3));
+        store.put(RUN, 2, tree(5));
+
+        Assert.assertEquals(store.get(RUN, 1, PackedTree.parser()), tree(3));
+        Assert.assertEquals(store.get(RUN, 2, PackedTree.parser()), tree(5));
+        Assert.assertTrue(store.contains(RUN, 1));
+        Assert.assertEquals(store.getSolutions(), 2);
+        Assert.assertTrue(store.getAllocatedBytes() > 0);
+    }
+
+    @Test
+    public void testGetUnknown() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.put(RUN, 1, tree(3));
+
+        Assert.assertNull(store.get(RUN, 2, PackedTree.parser()));
+        Assert.assertNull(store.get("other", 1, PackedTree.parser()));
+        Assert.assertFalse(store.contains("other", 1));
+    }
+
+    @Test
+    public void testPutReplaces() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.put(RUN, 1, tree(3));
+        store.put(RUN, 1, tree(7));
+
+        Assert.assertEquals(store.get(RUN, 1, PackedTree.parser()), tree(7));
+        Assert.assertEquals(store.getSolutions(), 1);
+    }
+
+    @Test
+    public void testRunsAreSeparate() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.put(RUN, 1, tree(3));
+        store.put("other", 1, tree(4));
+
+        Assert.assertEquals(store.get(RUN, 1, PackedTree.parser()), tree(3));
+        Assert.assertEquals(store.get("other", 1, PackedTree.parser()), tree(4));
+    }
+
+    @Test
+    public void testRemove() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.put(RUN, 1, tree(3));
+        store.put(RUN, 2, tree(3));
+
+        Assert.assertTrue(store.remove(RUN, 1));
+        Assert.assertFalse(store.remove(RUN, 1));
+        Assert.assertFalse(store.remove("other", 1));
+        Assert.assertNull(store.get(RUN, 1, PackedTree.parser()));
+        Assert.assertEquals(store.get(RUN, 2, PackedTree.parser()), tree(3));
+        Assert.assertEquals(store.getSolutions(), 1);
+    }
+
+    @Test
+    public void testManySolutions() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.setSegmentSize(4096);
+        for (int i = 0; i < 10000; i++) {
+            store.put(RUN, i * 31L, tree(i % 20 + 1));
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            Assert.assertTrue(store.remove(RUN, i * 31L));
+        }
+
+        Assert.assertEquals(store.getSolutions(), 5000);
+        for (int i = 1; i < 10000; i += 2) {
+            Assert.assertEquals(store.get(RUN, i * 31L, PackedTree.parser()), tree(i % 20 + 1));
+        }
+    }
+
+    @Test
+    public void testNextGenerationEvictsUnreferenced() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.setMaxAge(1);
+        store.put(RUN, 1, tree(3));
+        store.put(RUN, 2, tree(4));
+
+        Assert.assertEquals(store.nextGeneration(RUN), 0);
+        Assert.assertNotNull(store.get(RUN, 1, PackedTree.parser()));
+        Assert.assertEquals(store.nextGeneration(RUN), 1);
+
+        Assert.assertTrue(store.contains(RUN, 1));
+        Assert.assertFalse(store.contains(RUN, 2));
+        Assert.assertEquals(store.nextGeneration("other"), 0);
+    }
+
+    @Test
+    public void testGenerationSize() {
+        SolutionStore store = new SolutionStore();
+        store.setMaxAge(1);
+        store.setGenerationSize(10);
+        for (int i = 0; i < 30; i++) {
+            store.put(RUN, i, tree(3));
+        }
+
+        //  Every 10 stored solutions start a new generation, which evicts the solutions two generations back
+        Assert.assertFalse(store.contains(RUN, 0));
+        Assert.assertTrue(store.contains(RUN, 29));
+    }
+
+    @Test
+    public void testCompaction() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.setSegmentSize(1024);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 200; i++) {
+                store.put(RUN, i, tree((i + round) % 10 + 1));
+            }
+            store.nextGeneration(RUN);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            Assert.assertEquals(store.get(RUN, i, PackedTree.parser()), tree((i + 4) % 10 + 1));
+        }
+    }
+
+    @Test
+    public void testRelease() throws InvalidProtocolBufferException {
+        SolutionStore store = new SolutionStore();
+        store.put(RUN, 1, tree(3));
+        store.put("other", 1, tree(4));
+        store.release(RUN);
+
+        Assert.assertNull(store.get(RUN, 1, PackedTree.parser()));
+        Assert.assertFalse(store.contains(RUN, 1));
+        Assert.assertEquals(store.getSolutions(), 1);
+        Assert.assertEquals(store.get("other", 1, PackedTree.parser()), tree(4));
+
+        //  A released run can be used again
+        store.put(RUN, 1, tree(5));
+        Assert.assertEquals(store.get(RUN, 1, PackedTree.parser()), tree(5));
+
+        store.release(RUN);
+        store.release("other");
+        Assert.assertEquals(store.getSolutions(), 0);
+        Assert.assertEquals(store.getAllocatedBytes(), 0);
+    }
+
+    @Test
+    public void testMemoryMappedSegments() throws IOException {
+        File directory = Files.createTempDirectory("solutions").toFile();
+        try {
+            SolutionStore store = new SolutionStore();
+            store.setDirectory(directory.getPath());
+            store.setSegmentSize(1024);
+            for (int i = 0; i < 100; i++) {
+                store.put(RUN, i, tree(i % 10 + 1));
+            }
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(store.get(RUN, i, PackedTree.parser()), tree(i % 10 + 1));
+            }
+            store.release(RUN);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}